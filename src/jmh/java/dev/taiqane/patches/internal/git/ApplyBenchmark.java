@@ -0,0 +1,120 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Applies a one line change to a repository with a growing number of untouched files. The cost
+    of both apply modes should stay flat, since only the touched paths are staged and written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ApplyBenchmark {
+    private static final String TARGET = "src/Target.java";
+    private static final String PATCH = """
+            diff --git a/src/Target.java b/src/Target.java
+            --- a/src/Target.java
+            +++ b/src/Target.java
+            @@ -3,5 +3,5 @@
+             line 3
+             line 4
+            -line 5
+            +line 5 changed
+             line 6
+             line 7
+            """;
+
+    @Param({"100", "10000", "50000"})
+    private int untouchedFiles;
+
+    private final GitService gitService = new GitService(new PatchesConfiguration(), new TempStorage());
+    private File directory;
+    private Git git;
+    private ObjectId baseCommit;
+    private PatchesDiff diff;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GitAPIException {
+        this.directory = Files.createTempDirectory("patches-benchmark").toFile();
+        File workTree = new File(this.directory, "repo");
+        this.git = Git.init().setDirectory(workTree).call();
+
+        for (int i = 0; i < this.untouchedFiles; i++) {
+            File file = new File(workTree, "untouched/d" + (i / 1000) + "/File" + i + ".java");
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.writeString(file.toPath(), "class File" + i + " {}\n");
+        }
+
+        StringBuilder target = new StringBuilder();
+        for (int i = 1; i <= 10; i++) {
+            target.append("line ").append(i).append('\n');
+        }
+        File targetFile = new File(workTree, TARGET);
+        Files.createDirectories(targetFile.getParentFile().toPath());
+        Files.writeString(targetFile.toPath(), target);
+
+        this.git.add().addFilepattern(".").call();
+        this.baseCommit = this.git.commit().setMessage("base").setSign(false).call();
+
+        DiffService diffService = new DiffService();
+        File patchFile = new File(this.directory, "0001-change.patch");
+        diffService.writePatchWithHeader(patchFile, PATCH, "Change line 5", "", PatchGenerator.AUTHOR_NAME, PatchGenerator.AUTHOR_EMAIL, ZonedDateTime.now());
+        this.diff = diffService.readPatches(patchFile);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetToBase() throws IOException {
+        ObjectId head = this.git.getRepository().resolve(Constants.HEAD);
+        if (!this.baseCommit.equals(head)) {
+            RepositoryUtil.moveHead(this.git.getRepository(), head, this.baseCommit, "benchmark: reset");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.git.close();
+        FileUtils.delete(this.directory, FileUtils.RECURSIVE);
+    }
+
+    @Benchmark
+    public ObjectId applyToWorkTree() throws GitAPIException, IOException {
+        return this.gitService.applyPatchToWorkTree(this.git, this.diff);
+    }
+
+    @Benchmark
+    public ObjectId applyInMemory() throws GitAPIException, IOException {
+        try (InMemoryApplier applier = new InMemoryApplier(this.git.getRepository(), new ApplyOptions())) {
+            ObjectId commit = applier.applyPatch(this.baseCommit, this.diff);
+            applier.getInserter().flush();
+            return commit;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitMessageBenchmark {
+    @Param({"0", "200", "20000"})
+    private int bodyLength;
+
+    private final GitService gitService = new GitService(new PatchesConfiguration(), new TempStorage());
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder builder = new StringBuilder(PatchGenerator.SUBJECT);
+        if (this.bodyLength > 0) {
+            builder.append("\n\n");
+            while (builder.length() < PatchGenerator.SUBJECT.length() + 2 + this.bodyLength) {
+                builder.append("Explain what the change does and why it is needed.\n");
+            }
+        }
+        this.message = builder.toString();
+    }
+
+    @Benchmark
+    public String[] splitSubjectAndBody() {
+        return this.gitService.splitSubjectAndBody(this.message);
+    }
+}
@@ -0,0 +1,95 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.internal.error.ExitCodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.eclipse.jgit.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Reading, parsing and writing of a single patch file at several sizes, from a small change
+    up to a 50 MB generated-code diff.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatchFormatBenchmark {
+    @Param({"4096", "1048576", "52428800"})
+    private int patchSize;
+
+    private final DiffService diffService = new DiffService();
+    private final ZonedDateTime date = ZonedDateTime.parse("2025-08-12T10:15:00+02:00");
+
+    private File directory;
+    private File patchFile;
+    private File outFile;
+    private File unchangedFile;
+    private String diffText;
+    private ByteBuffer patchContent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("patches-benchmark").toFile();
+        this.patchFile = new File(this.directory, "0001-generated.patch");
+        this.outFile = new File(this.directory, "out.patch");
+        this.unchangedFile = new File(this.directory, "unchanged.patch");
+        this.diffText = PatchGenerator.generatedCodeDiff(this.patchSize);
+
+        if (this.writePatch(this.patchFile) != ExitCodes.SUCCESSFUL || this.writePatch(this.unchangedFile) != ExitCodes.SUCCESSFUL) {
+            throw new IllegalStateException("Unable to write the benchmark patch");
+        }
+        this.patchContent = ByteBuffer.wrap(Files.readAllBytes(this.patchFile.toPath())).asReadOnlyBuffer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.delete(this.directory, FileUtils.RECURSIVE);
+    }
+
+    @Benchmark
+    public PatchesDiff readPatch() {
+        return this.diffService.readPatches(this.patchFile);
+    }
+
+    @Benchmark
+    public PatchesDiff parsePatch() {
+        return this.diffService.parsePatch(this.patchContent.duplicate());
+    }
+
+    @Benchmark
+    public ExitCodes writePatch() {
+        return this.writePatch(this.outFile);
+    }
+
+    @Benchmark
+    public DiffService.WriteResult rewriteUnchangedPatch() {
+        return this.diffService.writePatchIfChanged(this.unchangedFile, this.diffText, PatchGenerator.SUBJECT, PatchGenerator.BODY,
+                PatchGenerator.AUTHOR_NAME, PatchGenerator.AUTHOR_EMAIL, this.date, Set.of());
+    }
+
+    private ExitCodes writePatch(File file) {
+        return this.diffService.writePatchWithHeader(file, this.diffText, PatchGenerator.SUBJECT, PatchGenerator.BODY,
+                PatchGenerator.AUTHOR_NAME, PatchGenerator.AUTHOR_EMAIL, this.date);
+    }
+}
@@ -0,0 +1,42 @@
+package dev.taiqane.patches.internal.git;
+
+/*
+    Builds synthetic patches for the benchmarks. The diffs look like generated code, i.e. new
+    files with many similar lines, which is the worst case for the patch parser and writer.
+ */
+final class PatchGenerator {
+    static final String SUBJECT = "Regenerate protocol classes";
+    static final String BODY = "The classes below are generated from the protocol definition.\n\nDo not edit them by hand.";
+    static final String AUTHOR_NAME = "Patches Benchmark";
+    static final String AUTHOR_EMAIL = "benchmark@patches.invalid";
+
+    private static final int LINES_PER_FILE = 20_000;
+
+    private PatchGenerator() {
+    }
+
+    static String generatedCodeDiff(int targetSize) {
+        StringBuilder diff = new StringBuilder(targetSize + 4096);
+        int fileNumber = 0;
+
+        while (diff.length() < targetSize) {
+            StringBuilder hunk = new StringBuilder();
+            int lines = 0;
+            while (lines < LINES_PER_FILE && diff.length() + hunk.length() < targetSize) {
+                hunk.append("+    public static final int FIELD_").append(fileNumber).append('_').append(lines)
+                        .append(" = ").append(lines).append(";\n");
+                lines++;
+            }
+
+            String path = "gen/Generated" + fileNumber + ".java";
+            diff.append("diff --git a/").append(path).append(" b/").append(path).append('\n')
+                    .append("new file mode 100644\n")
+                    .append("--- /dev/null\n")
+                    .append("+++ b/").append(path).append('\n')
+                    .append("@@ -0,0 +1,").append(lines).append(" @@\n")
+                    .append(hunk);
+            fileNumber++;
+        }
+        return diff.toString();
+    }
+}
@@ -1,12 +1,22 @@
 package dev.taiqane.patches;
 
 import dev.taiqane.patches.cli.PatchesCLI;
+import dev.taiqane.patches.internal.daemon.DaemonClient;
+import dev.taiqane.patches.internal.metrics.Timings;
 import picocli.CommandLine;
 
+import java.util.Optional;
+
 public class PatchesApp {
 
     public static void main(String[] args) {
+        Optional<Integer> forwarded = DaemonClient.forward(args);
+        if (forwarded.isPresent()) {
+            System.exit(forwarded.get());
+        }
+
         int exitCode = new CommandLine(new PatchesCLI()).execute(args);
+        Timings.writeReport();
         System.exit(exitCode);
     }
 }
@@ -2,9 +2,11 @@ package dev.taiqane.patches.cli;
 
 import dev.taiqane.patches.cli.command.*;
 import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.metrics.Timings;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
 
 import java.util.concurrent.Callable;
 
@@ -21,11 +23,26 @@ import java.util.concurrent.Callable;
                 CreatePatchCommand.class,
                 ConfigCommand.class,
                 ResetCommand.class,
-                ConvertPatchesCommand.class
+                StatusCommand.class,
+                CheckCommand.class,
+                ConvertPatchesCommand.class,
+                PackCommand.class,
+                UnpackCommand.class,
+                ImportMboxCommand.class,
+                ExportMboxCommand.class,
+                RebuildPatchesCommand.class,
+                DaemonCommand.class,
+                RunCommand.class
         }
 )
 public class PatchesCLI implements Callable<Integer> {
 
+    @Option(names = {"--timings"}, arity = "0..1", fallbackValue = Timings.STANDARD_OUTPUT, paramLabel = "<file>",
+            description = "Print a JSON report of the per-phase and per-patch durations after the command, or write it to <file>")
+    private void setTimings(String target) {
+        Timings.enable(target);
+    }
+
     @Override
     public Integer call() throws Exception {
         log.error("No command specified. Use 'patches --help' for usage information.");
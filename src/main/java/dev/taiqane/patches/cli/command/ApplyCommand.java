@@ -3,7 +3,9 @@ package dev.taiqane.patches.cli.command;
 import dev.taiqane.patches.configuration.PatchesConfiguration;
 import dev.taiqane.patches.internal.TempStorage;
 import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.ApplyOptions;
 import dev.taiqane.patches.internal.git.GitService;
+import dev.taiqane.patches.internal.git.PatchBundle;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -24,6 +26,36 @@ public class ApplyCommand implements Callable<Integer> {
     @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
     private File configFile = new File("patches.properties");
 
+    @Option(names = {"-B", "--bundle"}, paramLabel = "<file>", description = "Read the patches from a bundle written by patches pack instead of the patches directory")
+    private File bundle;
+
+    @Option(names = {"-M", "--in-memory"}, description = "Build the whole series in the object database and check out the result only once")
+    private boolean inMemory = false;
+
+    @Option(names = {"-L", "--lookahead"}, description = "Number of upcoming patches that are read and validated while the current one is applied. Defaults to 8")
+    private int lookahead = ApplyOptions.DEFAULT_LOOKAHEAD;
+
+    @Option(names = {"-j", "--jobs"}, description = "Number of threads applying patches which touch different files concurrently in in-memory mode. Defaults to the number of processors")
+    private int jobs = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"--no-cache"}, description = "Apply every patch again instead of reusing the commits of an unchanged series prefix")
+    private boolean noCache = false;
+
+    @Option(names = {"--continue"}, description = "Resume a failed apply after the last patch recorded in the checkpoint")
+    private boolean resume = false;
+
+    @Option(names = {"--from"}, paramLabel = "<patch>", description = "Resume a failed apply at the given patch file")
+    private String fromPatch;
+
+    @Option(names = {"--fuzz"}, paramLabel = "<lines>", description = "Number of leading and trailing context lines a hunk may ignore when it does not match otherwise. Defaults to 0")
+    private int fuzz = 0;
+
+    @Option(names = {"--strict"}, description = "Only apply hunks at the exact position their header names, without offset search and fuzz")
+    private boolean strict = false;
+
+    @Option(names = {"--dry-run"}, description = "Only check in memory that every patch applies on top of HEAD and report all failing patches")
+    private boolean dryRun = false;
+
     @Override
     public Integer call() throws Exception {
         try {
@@ -33,10 +65,10 @@ public class ApplyCommand implements Callable<Integer> {
             }
 
             PatchesConfiguration.load(this.getConfigFile()).ifPresent(patchesConfiguration -> configuration = patchesConfiguration);
-            File patchesDirectoryPath = new File(this.getConfiguration().getPatchesDirectoryPath());
+            File patchesSource = this.getBundle() != null ? this.getBundle() : new File(this.getConfiguration().getPatchesDirectoryPath());
 
-            if (!patchesDirectoryPath.exists() || !patchesDirectoryPath.isDirectory()) {
-                log.error("Patches directory path is not a directory!");
+            if (!patchesSource.isDirectory() && !PatchBundle.isBundle(patchesSource)) {
+                log.error("Patches directory path is neither a directory nor a patch bundle!");
                 return ExitCodes.USAGE_ERROR.getCodeValue();
             }
 
@@ -46,7 +78,18 @@ public class ApplyCommand implements Callable<Integer> {
             }
 
             GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
-            return gitService.applyPatches().getCodeValue();
+            gitService.setPatchesSource(patchesSource);
+            ApplyOptions options = new ApplyOptions();
+            options.setInMemory(this.isInMemory());
+            options.setLookahead(this.getLookahead());
+            options.setJobs(this.getJobs());
+            options.setUseCache(!this.isNoCache());
+            options.setResume(this.isResume() || this.getFromPatch() != null);
+            options.setFromPatch(this.getFromPatch());
+            options.setDryRun(this.isDryRun());
+            options.setFuzz(this.getFuzz());
+            options.setStrict(this.isStrict());
+            return gitService.applyPatches(options).getCodeValue();
         } catch (Exception e) {
             log.error("An error occurred at applying patches", e);
             return ExitCodes.INTERNAL_ERROR.getCodeValue();
@@ -0,0 +1,55 @@
+package dev.taiqane.patches.cli.command;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.ApplyOptions;
+import dev.taiqane.patches.internal.git.GitService;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Getter
+@NoArgsConstructor
+@Command(name = "check", description = "Checks in memory that every patch applies on the config base ref and reports all failing patches")
+public class CheckCommand implements Callable<Integer> {
+    private final TempStorage storage = new TempStorage();
+    private PatchesConfiguration configuration;
+
+    @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
+    private File configFile = new File("patches.properties");
+
+    @Option(names = {"-B", "--bundle"}, paramLabel = "<file>", description = "Read the patches from a bundle written by patches pack instead of the patches directory")
+    private File bundle;
+
+    @Option(names = {"--fuzz"}, paramLabel = "<lines>", description = "Number of leading and trailing context lines a hunk may ignore when it does not match otherwise. Defaults to 0")
+    private int fuzz = 0;
+
+    @Option(names = {"--strict"}, description = "Only apply hunks at the exact position their header names, without offset search and fuzz")
+    private boolean strict = false;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!this.getConfigFile().exists()) {
+            log.error("No valid patches configuration found!");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+
+        PatchesConfiguration.load(this.getConfigFile()).ifPresent(patchesConfiguration -> configuration = patchesConfiguration);
+
+        GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
+        if (this.getBundle() != null) {
+            gitService.setPatchesSource(this.getBundle());
+        }
+        ApplyOptions options = new ApplyOptions();
+        options.setFuzz(this.getFuzz());
+        options.setStrict(this.isStrict());
+        return gitService.checkPatches(options, false).getCodeValue();
+    }
+}
@@ -23,6 +23,9 @@ public class CleanCommand implements Callable<Integer> {
     @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
     private File configFile = new File("patches.properties");
 
+    @Option(names = {"--wait"}, description = "Delete the work directory before returning instead of in the background, so failures are reported by this run and not by the next clean or init")
+    private boolean waitForDeletion = false;
+
     @Override
     public Integer call() throws Exception {
         // Only delete _workdir if patches config file is found
@@ -36,6 +39,6 @@ public class CleanCommand implements Callable<Integer> {
         log.info("Deleting {} directory", this.getConfiguration().getGitRepoDirectory());
 
         FileService fileService = new FileService(this.getConfiguration());
-        return fileService.cleanWorkDir().getCodeValue();
+        return fileService.cleanWorkDir(this.isWaitForDeletion()).getCodeValue();
     }
 }
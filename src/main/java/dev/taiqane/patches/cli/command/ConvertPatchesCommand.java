@@ -24,6 +24,9 @@ public class ConvertPatchesCommand implements Callable<Integer> {
     @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
     private File configFile = new File("patches.properties");
 
+    @Option(names = {"-B", "--bundle"}, paramLabel = "<file>", description = "Read the patches from a bundle written by patches pack instead of the patches directory")
+    private File bundle;
+
     @Override
     public Integer call() throws Exception {
 
@@ -36,6 +39,9 @@ public class ConvertPatchesCommand implements Callable<Integer> {
 
         log.info("Start to convert our patches to git patches");
         GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
+        if (this.getBundle() != null) {
+            gitService.setPatchesSource(this.getBundle());
+        }
         return gitService.convertPatchesToGitPatches().getCodeValue();
     }
 }
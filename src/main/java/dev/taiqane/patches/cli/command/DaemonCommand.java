@@ -0,0 +1,69 @@
+package dev.taiqane.patches.cli.command;
+
+import dev.taiqane.patches.cli.PatchesCLI;
+import dev.taiqane.patches.internal.daemon.DaemonClient;
+import dev.taiqane.patches.internal.daemon.DaemonProtocol;
+import dev.taiqane.patches.internal.daemon.DaemonServer;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.RepositorySession;
+import dev.taiqane.patches.internal.metrics.Timings;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Getter
+@NoArgsConstructor
+@Command(name = "daemon", description = "Runs the commands of this directory in one long-lived process that keeps the repositories open. "
+        + "Other invocations forward to it automatically while it is running")
+public class DaemonCommand implements Callable<Integer> {
+
+    @Option(names = {"--stop"}, description = "Stop the daemon of this directory")
+    private boolean stop;
+
+    @Option(names = {"--cache-size"}, description = "Size of the pack cache in MiB. Defaults to 256")
+    private int cacheSize = 256;
+
+    @Override
+    public Integer call() throws Exception {
+        if (this.isStop()) {
+            try {
+                if (DaemonClient.stop(DaemonProtocol.DEFAULT_SOCKET)) {
+                    log.info("Stopped the patches daemon");
+                    return ExitCodes.SUCCESSFUL.getCodeValue();
+                }
+            } catch (IOException e) {
+                log.error("No patches daemon is running in this directory");
+                return ExitCodes.USAGE_ERROR.getCodeValue();
+            }
+            return ExitCodes.INTERNAL_ERROR.getCodeValue();
+        }
+
+        if (this.getCacheSize() <= 0) {
+            log.error("The cache size must be positive");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+
+        RepositorySession.enableSharing(this.getCacheSize() * 1024L * 1024L);
+        DaemonServer server = new DaemonServer(DaemonProtocol.DEFAULT_SOCKET, this::runCommand);
+        return server.run().getCodeValue();
+    }
+
+    private int runCommand(String[] args) {
+        if (args.length > 0 && "daemon".equals(args[0])) {
+            log.error("The daemon command can not be run inside the daemon");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+
+        Timings.reset();
+        int exitCode = new CommandLine(new PatchesCLI()).execute(args);
+        Timings.writeReport();
+        return exitCode;
+    }
+}
@@ -0,0 +1,48 @@
+package dev.taiqane.patches.cli.command;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.GitService;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Getter
+@NoArgsConstructor
+@Command(name = "export-mbox", description = "Writes the series into a mbox which git am can apply")
+public class ExportMboxCommand implements Callable<Integer> {
+    private final TempStorage storage = new TempStorage();
+    private PatchesConfiguration configuration;
+
+    @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
+    private File configFile = new File("patches.properties");
+
+    @Option(names = {"-o", "--output"}, paramLabel = "<file>", description = "Mbox file to write. Defaults to patches.mbox")
+    private File output = new File("patches.mbox");
+
+    @Option(names = {"-B", "--bundle"}, paramLabel = "<file>", description = "Read the patches from a bundle written by patches pack instead of the patches directory")
+    private File bundle;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!this.getConfigFile().exists()) {
+            log.error("No valid patches configuration found!");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+
+        PatchesConfiguration.load(this.getConfigFile()).ifPresent(patchesConfiguration -> configuration = patchesConfiguration);
+
+        GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
+        if (this.getBundle() != null) {
+            gitService.setPatchesSource(this.getBundle());
+        }
+        return gitService.exportMbox(this.getOutput()).getCodeValue();
+    }
+}
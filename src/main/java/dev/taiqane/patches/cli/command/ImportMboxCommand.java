@@ -0,0 +1,43 @@
+package dev.taiqane.patches.cli.command;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.GitService;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Getter
+@NoArgsConstructor
+@Command(name = "import-mbox", description = "Adds the patches of a mbox (git format-patch --stdout) to the end of the series")
+public class ImportMboxCommand implements Callable<Integer> {
+    private final TempStorage storage = new TempStorage();
+    private PatchesConfiguration configuration;
+
+    @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
+    private File configFile = new File("patches.properties");
+
+    @Parameters(paramLabel = "<mbox>", description = "Mbox file to import, - reads it from stdin")
+    private File mbox;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!this.getConfigFile().exists()) {
+            log.error("No valid patches configuration found!");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+
+        PatchesConfiguration.load(this.getConfigFile()).ifPresent(patchesConfiguration -> configuration = patchesConfiguration);
+
+        GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
+        return gitService.importMbox(this.getMbox()).getCodeValue();
+    }
+}
@@ -3,6 +3,7 @@ package dev.taiqane.patches.cli.command;
 import dev.taiqane.patches.configuration.PatchesConfiguration;
 import dev.taiqane.patches.internal.TempStorage;
 import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.file.FileService;
 import dev.taiqane.patches.internal.git.GitService;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -62,6 +63,13 @@ public class InitCommand implements Callable<Integer> {
             log.error("An error occurred at creating the patches directory", e);
         }
 
+        // Leftovers of an old work directory are reported once, init can run again right after
+        ExitCodes sweepResult = new FileService(this.getConfiguration()).checkSweepFailures();
+        if (sweepResult != ExitCodes.SUCCESSFUL) {
+            log.error("Delete these paths or run patches clean --wait, then run patches init again");
+            return sweepResult.getCodeValue();
+        }
+
         GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
         return gitService.downloadRepository().getCodeValue();
     }
@@ -0,0 +1,46 @@
+package dev.taiqane.patches.cli.command;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.GitService;
+import dev.taiqane.patches.internal.git.PatchBundle;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Getter
+@NoArgsConstructor
+@Command(name = "pack", description = "Packs the patches directory into a single bundle file")
+public class PackCommand implements Callable<Integer> {
+    private final TempStorage storage = new TempStorage();
+    private PatchesConfiguration configuration;
+
+    @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
+    private File configFile = new File("patches.properties");
+
+    @Option(names = {"-o", "--output"}, paramLabel = "<file>", description = "Bundle file to write. Defaults to " + PatchBundle.DEFAULT_FILE_NAME)
+    private File output = new File(PatchBundle.DEFAULT_FILE_NAME);
+
+    @Option(names = {"--store"}, description = "Store the patches without compressing them")
+    private boolean store = false;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!this.getConfigFile().exists()) {
+            log.error("No valid patches configuration found!");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+
+        PatchesConfiguration.load(this.getConfigFile()).ifPresent(patchesConfiguration -> configuration = patchesConfiguration);
+
+        GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
+        return gitService.packPatches(this.getOutput(), !this.isStore()).getCodeValue();
+    }
+}
@@ -0,0 +1,47 @@
+package dev.taiqane.patches.cli.command;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.GitService;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Getter
+@NoArgsConstructor
+@Command(name = "rebuild-patches", description = "Regenerates one patch per commit between the config base ref and HEAD")
+public class RebuildPatchesCommand implements Callable<Integer> {
+    private final TempStorage storage = new TempStorage();
+    private PatchesConfiguration configuration;
+
+    @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
+    private File configFile = new File("patches.properties");
+
+    @Option(names = {"--prune"}, description = "Delete patch files which belong to no commit anymore")
+    private boolean prune = false;
+
+    @Override
+    public Integer call() throws Exception {
+        if (!this.getConfigFile().exists()) {
+            log.error("No valid patches configuration found!");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+
+        PatchesConfiguration.load(this.getConfigFile()).ifPresent(patchesConfiguration -> configuration = patchesConfiguration);
+
+        if (!(new File(this.getConfiguration().getGitRepoDirectory()).exists())) {
+            log.error("No workdir found!");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+
+        GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
+        return gitService.rebuildPatches(this.isPrune()).getCodeValue();
+    }
+}
@@ -24,6 +24,9 @@ public class ResetCommand implements Callable<Integer> {
     @Option(names = {"-F", "--config"}, description = "Path to patches config file. Defaults to patches.properties")
     private File configFile = new File("patches.properties");
 
+    @Option(names = {"--offline"}, description = "Do not contact the remote and reset to the locally known base ref")
+    private boolean offline;
+
     @Override
     public Integer call() throws Exception {
         if (!this.getConfigFile().exists()) {
@@ -35,6 +38,6 @@ public class ResetCommand implements Callable<Integer> {
 
         log.info("Starting to reset the workdir repository");
         GitService gitService = new GitService(this.getConfiguration(), this.getStorage());
-        return gitService.resetRepository().getCodeValue();
+        return gitService.resetRepository(this.isOffline()).getCodeValue();
     }
 }
@@ -0,0 +1,163 @@
+package dev.taiqane.patches.cli.command;
+
+import dev.taiqane.patches.cli.PatchesCLI;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.RepositorySession;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+@Slf4j
+@Getter
+@NoArgsConstructor
+@Command(name = "run", description = "Runs several commands in order in one process, e.g. 'patches run reset apply convert-patches'. "
+        + "The steps share the opened repository and skip status checks of a tree an earlier step left clean")
+public class RunCommand implements Callable<Integer> {
+    private static final Set<String> NESTED_COMMANDS = Set.of("run", "daemon");
+
+    @Option(names = {"-f", "--file"}, description = "Read the steps from a file, one command with its options per line. Lines starting with # are ignored. "
+            + "Arguments are split at whitespace and can be quoted like in a shell")
+    private File scriptFile;
+
+    @Parameters(paramLabel = "<step>", description = "Commands to run. Quote a step to pass options to it, e.g. \"apply -M\". "
+            + "Arguments with spaces are quoted once more, e.g. \"import-mbox 'my series.mbox'\"")
+    private List<String> steps = new ArrayList<>();
+
+    @Override
+    public Integer call() throws Exception {
+        List<String[]> commands = new ArrayList<>();
+        if (this.getScriptFile() != null) {
+            try {
+                for (String line : Files.readAllLines(this.getScriptFile().toPath(), StandardCharsets.UTF_8)) {
+                    String step = line.strip();
+                    if (!step.isEmpty() && !step.startsWith("#") && !this.addStep(commands, step)) {
+                        return ExitCodes.USAGE_ERROR.getCodeValue();
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Unable to read the steps from {}", this.getScriptFile(), e);
+                return ExitCodes.OPERATING_SYSTEM_ERROR.getCodeValue();
+            }
+        }
+        for (String step : this.getSteps()) {
+            if (!step.isBlank() && !this.addStep(commands, step)) {
+                return ExitCodes.USAGE_ERROR.getCodeValue();
+            }
+        }
+
+        if (commands.isEmpty()) {
+            log.error("No steps to run given");
+            return ExitCodes.USAGE_ERROR.getCodeValue();
+        }
+        Set<String> knownCommands = new CommandLine(new PatchesCLI()).getSubcommands().keySet();
+        for (String[] command : commands) {
+            if (NESTED_COMMANDS.contains(command[0]) || !knownCommands.contains(command[0])) {
+                log.error("{} can not be used as a step of run", command[0]);
+                return ExitCodes.USAGE_ERROR.getCodeValue();
+            }
+        }
+
+        // Inside the daemon the repositories are shared already and stay open after the run
+        boolean alreadyShared = RepositorySession.isShared();
+        if (!alreadyShared) {
+            RepositorySession.enableSharing();
+        }
+        RepositorySession.setStatusCache(true);
+
+        try {
+            for (int i = 0; i < commands.size(); i++) {
+                String[] command = commands.get(i);
+                log.info("Running step {}/{}: {}", i + 1, commands.size(), String.join(" ", command));
+
+                int exitCode = new CommandLine(new PatchesCLI()).execute(command);
+                if (exitCode != ExitCodes.SUCCESSFUL.getCodeValue()) {
+                    log.error("Step {} failed with exit code {}, skipping the remaining steps", command[0], exitCode);
+                    return exitCode;
+                }
+            }
+            return ExitCodes.SUCCESSFUL.getCodeValue();
+        } finally {
+            RepositorySession.setStatusCache(false);
+            if (!alreadyShared) {
+                RepositorySession.disableSharing();
+            }
+        }
+    }
+
+    private boolean addStep(List<String[]> commands, String step) {
+        List<String> arguments = splitStep(step);
+        if (arguments == null) {
+            log.error("The step {} has an unterminated quote", step.strip());
+            return false;
+        }
+        commands.add(arguments.toArray(new String[0]));
+        return true;
+    }
+
+    /*
+        Splits a step into its arguments like a shell does, without expanding anything. Single
+        quotes keep their content as it is, in double quotes a backslash escapes " and \, outside
+        of quotes it escapes any character. Returns null if a quote is not closed.
+     */
+    static List<String> splitStep(String step) {
+        List<String> arguments = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inArgument = false;
+        char quote = 0;
+
+        for (int i = 0; i < step.length(); i++) {
+            char c = step.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else if (c == '\\' && i + 1 < step.length() && (step.charAt(i + 1) == '"' || step.charAt(i + 1) == '\\')) {
+                    current.append(step.charAt(++i));
+                } else {
+                    current.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (inArgument) {
+                    arguments.add(current.toString());
+                    current.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                inArgument = true;
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '\\' && i + 1 < step.length()) {
+                    current.append(step.charAt(++i));
+                } else {
+                    current.append(c);
+                }
+            }
+        }
+
+        if (quote != 0) {
+            return null;
+        }
+        if (inArgument) {
+            arguments.add(current.toString());
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,23 @@
+package dev.taiqane.patches.configuration;
+
+import java.util.Locale;
+
+/*
+    Which refs of the base repository are downloaded by init.
+ */
+public enum CloneMode {
+    // every branch and tag
+    FULL,
+    // only the branch named by baseRepoRef, without tags
+    SINGLE_BRANCH,
+    // only the tag named by baseRepoRef
+    TAG;
+
+    public static CloneMode parse(String value) {
+        return CloneMode.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    public String toPropertyValue() {
+        return this.name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
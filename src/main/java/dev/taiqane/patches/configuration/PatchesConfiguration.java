@@ -12,8 +12,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
 
 @Slf4j
 @Getter
@@ -28,6 +30,15 @@ public class PatchesConfiguration {
     private String baseRepoUrl;
     private String baseRepoRef;
     private String patchesDirectoryPath;
+    // Comma separated patch header names (e.g. "Date") that do not count as a change when rebuilding patches
+    private String volatileHeaders = "";
+    // History depth fetched by init, 0 downloads the full history
+    private int cloneDepth = 0;
+    private CloneMode cloneMode = CloneMode.FULL;
+    // Share a bare mirror of the base repository between all work directories of this user
+    private boolean mirrorCache = false;
+    // Defaults to $XDG_CACHE_HOME/patches/mirrors or ~/.cache/patches/mirrors if blank
+    private String mirrorCacheDirectory = "";
 
     public static Optional<PatchesConfiguration> load(File file) {
         try {
@@ -45,6 +56,16 @@ public class PatchesConfiguration {
             String baseRepoUrl = props.getProperty("baseRepoUrl");
             String baseRepoRef = props.getProperty("baseRepoRef");
             String patchesDirectoryPath = props.getProperty("patchesDirectoryPath", PATCHES_DIRECTORY_PATH_EXAMPLE);
+            String volatileHeaders = props.getProperty("volatileHeaders", "");
+            int cloneDepth = Integer.parseInt(props.getProperty("cloneDepth", "0").trim());
+            CloneMode cloneMode = CloneMode.parse(props.getProperty("cloneMode", CloneMode.FULL.toPropertyValue()));
+            boolean mirrorCache = Boolean.parseBoolean(props.getProperty("mirrorCache", "false").trim());
+            String mirrorCacheDirectory = props.getProperty("mirrorCacheDirectory", "");
+
+            if (cloneDepth < 0) {
+                log.error("cloneDepth must not be negative");
+                return Optional.empty();
+            }
 
             if (baseRepoUrl == null || baseRepoRef == null || patchesDirectoryPath == null) {
                 log.info("Keys cannot be loaded from properties file!");
@@ -54,6 +75,11 @@ public class PatchesConfiguration {
             configuration.setBaseRepoUrl(baseRepoUrl);
             configuration.setBaseRepoRef(baseRepoRef);
             configuration.setPatchesDirectoryPath(patchesDirectoryPath);
+            configuration.setVolatileHeaders(volatileHeaders);
+            configuration.setCloneDepth(cloneDepth);
+            configuration.setCloneMode(cloneMode);
+            configuration.setMirrorCache(mirrorCache);
+            configuration.setMirrorCacheDirectory(mirrorCacheDirectory);
 
             return Optional.of(configuration);
         } catch (Exception ex) {
@@ -63,7 +89,7 @@ public class PatchesConfiguration {
     }
 
     private static Optional<PatchesConfiguration> createExampleConfiguration(TempStorage storage, String url) {
-        PatchesConfiguration configuration = new PatchesConfiguration(url, "main", PATCHES_DIRECTORY_PATH_EXAMPLE);
+        PatchesConfiguration configuration = new PatchesConfiguration(url, "main", PATCHES_DIRECTORY_PATH_EXAMPLE, "", 0, CloneMode.FULL, false, "");
         Properties props = loadFromConfig(configuration);
         try {
             props.store(new FileOutputStream("patches.properties"), null);
@@ -88,10 +114,25 @@ public class PatchesConfiguration {
         props.setProperty("baseRepoUrl", configuration.getBaseRepoUrl());
         props.setProperty("baseRepoRef", configuration.getBaseRepoRef());
         props.setProperty("patchesDirectoryPath", configuration.getPatchesDirectoryPath());
+        props.setProperty("volatileHeaders", configuration.getVolatileHeaders());
+        props.setProperty("cloneDepth", String.valueOf(configuration.getCloneDepth()));
+        props.setProperty("cloneMode", configuration.getCloneMode().toPropertyValue());
+        props.setProperty("mirrorCache", String.valueOf(configuration.isMirrorCache()));
+        props.setProperty("mirrorCacheDirectory", configuration.getMirrorCacheDirectory());
 
         return props;
     }
 
+    public Set<String> getVolatileHeaderNames() {
+        Set<String> names = new HashSet<>();
+        for (String name : this.getVolatileHeaders().split(",")) {
+            if (!name.isBlank()) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
+
     public ExitCodes save(File file) {
         Properties props = loadFromConfig(this);
         try {
@@ -0,0 +1,103 @@
+package dev.taiqane.patches.internal.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/*
+    Forwards a command to the daemon of the current directory. Runs before logging or picocli
+    are set up, so it reports nothing itself and simply falls back to a local run whenever the
+    daemon can not be reached.
+ */
+public final class DaemonClient {
+
+    private DaemonClient() {
+    }
+
+    public static Optional<Integer> forward(String[] args) {
+        if (System.getenv(DaemonProtocol.DISABLE_ENVIRONMENT_VARIABLE) != null
+                || (args.length > 0 && "daemon".equals(args[0]))
+                || !Files.exists(DaemonProtocol.DEFAULT_SOCKET)) {
+            return Optional.empty();
+        }
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(DaemonProtocol.DEFAULT_SOCKET));
+        } catch (IOException | UnsupportedOperationException e) {
+            // Stale socket of a daemon that is gone
+            return Optional.empty();
+        }
+
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            return Optional.of(readReply(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))), out));
+        } catch (IOException e) {
+            System.err.println("Lost the connection to the patches daemon: " + e.getMessage());
+            return Optional.of(1);
+        }
+    }
+
+    public static boolean stop(Path socket) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(UnixDomainSocketAddress.of(socket));
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(DaemonProtocol.STOP_REQUEST);
+            out.flush();
+            return readReply(new DataInputStream(Channels.newInputStream(channel)), out) == 0;
+        }
+    }
+
+    private static int readReply(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            byte type;
+            try {
+                type = in.readByte();
+            } catch (EOFException e) {
+                throw new IOException("The daemon closed the connection without an exit code", e);
+            }
+
+            if (type == DaemonProtocol.FRAME_EXIT) {
+                System.out.flush();
+                System.err.flush();
+                return in.readInt();
+            }
+
+            // The command reads its standard input, hand over at most as much as it asked for
+            if (type == DaemonProtocol.FRAME_STDIN) {
+                byte[] data = new byte[in.readInt()];
+                int length = System.in.read(data);
+                out.writeByte(DaemonProtocol.FRAME_STDIN);
+                out.writeInt(length);
+                if (length > 0) {
+                    out.write(data, 0, length);
+                }
+                out.flush();
+                continue;
+            }
+
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            PrintStream target = type == DaemonProtocol.FRAME_STDERR ? System.err : System.out;
+            target.write(data, 0, data.length);
+        }
+    }
+}
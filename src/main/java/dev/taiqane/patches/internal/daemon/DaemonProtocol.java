@@ -0,0 +1,27 @@
+package dev.taiqane.patches.internal.daemon;
+
+import java.nio.file.Path;
+
+/*
+    Wire format between the CLI and the daemon. A request is the number of arguments followed by
+    the arguments as modified UTF-8 strings, a negative count asks the daemon to stop. The reply
+    is a sequence of frames: a type byte, then for output frames the length and the bytes, and
+    finally an exit frame with the exit code of the command.
+
+    A command reading its standard input makes the daemon send a stdin frame with the number of
+    bytes it wants. The client answers with a stdin frame of at most that many bytes of its own
+    standard input, or with a length of -1 at its end.
+ */
+public final class DaemonProtocol {
+    public static final Path DEFAULT_SOCKET = Path.of(".patches-daemon.sock");
+    public static final String DISABLE_ENVIRONMENT_VARIABLE = "PATCHES_NO_DAEMON";
+
+    static final int STOP_REQUEST = -1;
+    static final byte FRAME_STDOUT = 'O';
+    static final byte FRAME_STDERR = 'E';
+    static final byte FRAME_EXIT = 'X';
+    static final byte FRAME_STDIN = 'I';
+
+    private DaemonProtocol() {
+    }
+}
@@ -0,0 +1,157 @@
+package dev.taiqane.patches.internal.daemon;
+
+import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.RepositorySession;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.function.Function;
+
+/*
+    Accepts commands on a Unix domain socket and runs them one after another in this JVM. The
+    output of a command is sent back to the client by swapping System.out and System.err while
+    it runs, and its input is read from the client by swapping System.in, which is also why
+    requests are never handled concurrently.
+ */
+@Slf4j
+@Getter
+@RequiredArgsConstructor
+public class DaemonServer {
+    private final Path socketPath;
+    private final Function<String[], Integer> commandRunner;
+
+    public ExitCodes run() {
+        if (this.isRunning()) {
+            log.error("A patches daemon is already listening on {}", this.getSocketPath());
+            return ExitCodes.USAGE_ERROR;
+        }
+
+        try {
+            Files.deleteIfExists(this.getSocketPath());
+        } catch (IOException e) {
+            log.error("Unable to remove the old socket {}", this.getSocketPath(), e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(this.getSocketPath()));
+            this.restrictPermissions();
+            log.info("Patches daemon listening on {}", this.getSocketPath().toAbsolutePath());
+
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = this.handle(client);
+                } catch (EOFException e) {
+                    // Connections without a request, e.g. the probe of a second daemon
+                    log.debug("Client closed the connection before sending a request");
+                } catch (IOException e) {
+                    log.warn("Lost the connection to a client", e);
+                }
+            }
+            log.info("Patches daemon stopped");
+            return ExitCodes.SUCCESSFUL;
+        } catch (IOException e) {
+            log.error("Unable to listen on {}", this.getSocketPath(), e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        } finally {
+            RepositorySession.closeAll();
+            try {
+                Files.deleteIfExists(this.getSocketPath());
+            } catch (IOException e) {
+                log.warn("Unable to remove the socket {}", this.getSocketPath(), e);
+            }
+        }
+    }
+
+    private boolean isRunning() {
+        if (!Files.exists(this.getSocketPath())) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            return channel.connect(UnixDomainSocketAddress.of(this.getSocketPath()));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void restrictPermissions() {
+        try {
+            Files.setPosixFilePermissions(this.getSocketPath(), PosixFilePermissions.fromString("rw-------"));
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Unable to restrict the permissions of {}", this.getSocketPath(), e);
+        }
+    }
+
+    /*
+        Returns false once the client asked the daemon to stop
+     */
+    private boolean handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+
+        int argCount = in.readInt();
+        if (argCount == DaemonProtocol.STOP_REQUEST) {
+            log.info("Stop requested");
+            this.sendExit(out, ExitCodes.SUCCESSFUL.getCodeValue());
+            return false;
+        }
+
+        String[] args = new String[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = in.readUTF();
+        }
+
+        InputStream originalIn = System.in;
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        int exitCode;
+        try (PrintStream clientOut = new PrintStream(new FrameOutputStream(out, DaemonProtocol.FRAME_STDOUT), true, StandardCharsets.UTF_8);
+             PrintStream clientErr = new PrintStream(new FrameOutputStream(out, DaemonProtocol.FRAME_STDERR), true, StandardCharsets.UTF_8)) {
+            System.setIn(new FrameInputStream(in, out));
+            System.setOut(clientOut);
+            System.setErr(clientErr);
+            try {
+                exitCode = this.getCommandRunner().apply(args);
+            } catch (RuntimeException e) {
+                log.error("The command failed unexpectedly", e);
+                exitCode = ExitCodes.INTERNAL_ERROR.getCodeValue();
+            } finally {
+                System.out.flush();
+                System.err.flush();
+                System.setIn(originalIn);
+                System.setOut(originalOut);
+                System.setErr(originalErr);
+            }
+        }
+
+        this.sendExit(out, exitCode);
+        return true;
+    }
+
+    private void sendExit(DataOutputStream out, int exitCode) throws IOException {
+        synchronized (out) {
+            out.writeByte(DaemonProtocol.FRAME_EXIT);
+            out.writeInt(exitCode);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package dev.taiqane.patches.internal.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+    Standard input of a forwarded command. Every read asks the client for at most the requested
+    number of bytes of its standard input, so nothing is taken from the caller's terminal or pipe
+    unless the command reads it. Closing it does not close the connection.
+ */
+class FrameInputStream extends InputStream {
+    private static final int MAX_REQUEST = 64 * 1024;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private boolean eof;
+
+    FrameInputStream(DataInputStream in, DataOutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (this.eof) {
+            return -1;
+        }
+
+        int requested = Math.min(len, MAX_REQUEST);
+        synchronized (this.out) {
+            this.out.writeByte(DaemonProtocol.FRAME_STDIN);
+            this.out.writeInt(requested);
+            this.out.flush();
+        }
+
+        if (this.in.readByte() != DaemonProtocol.FRAME_STDIN) {
+            throw new IOException("Expected standard input from the client");
+        }
+        int length = this.in.readInt();
+        if (length < 0) {
+            this.eof = true;
+            return -1;
+        }
+        if (length > requested) {
+            throw new IOException("The client sent more standard input than requested");
+        }
+        this.in.readFully(b, off, length);
+        return length;
+    }
+
+    @Override
+    public void close() {
+        this.eof = true;
+    }
+}
@@ -0,0 +1,43 @@
+package dev.taiqane.patches.internal.daemon;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+    Wraps everything written to it into output frames of the given type. Both streams of a
+    request share the same DataOutputStream, so writes are synchronized on it.
+ */
+class FrameOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final byte type;
+
+    FrameOutputStream(DataOutputStream out, byte type) {
+        this.out = out;
+        this.type = type;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        synchronized (this.out) {
+            this.out.writeByte(this.type);
+            this.out.writeInt(len);
+            this.out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        synchronized (this.out) {
+            this.out.flush();
+        }
+    }
+}
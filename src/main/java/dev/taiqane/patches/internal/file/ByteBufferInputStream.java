@@ -0,0 +1,47 @@
+package dev.taiqane.patches.internal.file;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/*
+    Streams the remaining bytes of a buffer without copying them into the heap first.
+    The buffer is duplicated, so reading does not move the position of the original one.
+ */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read() {
+        return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int count = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+}
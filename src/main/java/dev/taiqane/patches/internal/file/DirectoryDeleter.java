@@ -0,0 +1,81 @@
+package dev.taiqane.patches.internal.file;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+    Deletes a directory tree with one fork-join task per directory. Symbolic links are removed
+    but never followed. Every path that could not be deleted is collected instead of aborting,
+    so the caller can report all failures at once.
+ */
+@Slf4j
+@Getter
+class DirectoryDeleter {
+    private final Queue<Path> failures = new ConcurrentLinkedQueue<>();
+
+    public boolean delete(Path root) {
+        try (ForkJoinPool pool = new ForkJoinPool()) {
+            pool.invoke(new DeleteTask(root));
+        }
+        return this.getFailures().isEmpty();
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.delete(path);
+        } catch (NoSuchFileException ignored) {
+            // Already gone
+        } catch (IOException e) {
+            log.debug("Unable to delete {}", path, e);
+            this.getFailures().add(path);
+        }
+    }
+
+    private class DeleteTask extends RecursiveAction {
+        private final Path directory;
+
+        private DeleteTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DeleteTask> subTasks = new ArrayList<>();
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.directory)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        DeleteTask task = new DeleteTask(entry);
+                        task.fork();
+                        subTasks.add(task);
+                    } else {
+                        deleteQuietly(entry);
+                    }
+                }
+            } catch (NoSuchFileException ignored) {
+                return;
+            } catch (IOException e) {
+                log.debug("Unable to list {}", this.directory, e);
+                getFailures().add(this.directory);
+            }
+
+            for (DeleteTask task : subTasks) {
+                task.join();
+            }
+            deleteQuietly(this.directory);
+        }
+    }
+}
@@ -2,52 +2,123 @@ package dev.taiqane.patches.internal.file;
 
 import dev.taiqane.patches.configuration.PatchesConfiguration;
 import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.git.RepositorySession;
+import dev.taiqane.patches.internal.metrics.Phase;
+import dev.taiqane.patches.internal.metrics.Timings;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 
 @Slf4j
 @Getter
 @RequiredArgsConstructor
 public class FileService {
+    private static final String TOMBSTONE_SUFFIX = ".tombstone-";
+    private static final String SWEEP_FAILURES_SUFFIX = ".sweep-failures";
+    private static final int MAX_REPORTED_FAILURES = 10;
+
     private final PatchesConfiguration configuration;
 
-    private ExitCodes deleteDirectoryRecursively(File dir) {
-        if (dir.exists()) {
-            File[] files = dir.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    if (file.isDirectory()) {
-                        this.deleteDirectoryRecursively(file);
-                    } else {
-                        boolean deleted = file.delete();
-                        if (!deleted) {
-                            log.error("Unable to delete file {}", file.getName());
-                        }
-                    }
-                }
+    /*
+        Moves the work directory out of the way with an atomic rename first, so a new init can
+        start right away even while the old tree is still being deleted. The tombstone is deleted
+        by a detached TombstoneSweeper unless wait is set. Tombstones left behind by an interrupted
+        or detached clean are removed as well. Paths an earlier detached clean could not delete
+        make this clean fail, even though it goes on.
+     */
+    public ExitCodes cleanWorkDir(boolean wait) {
+        Path workDir = Path.of(this.getConfiguration().getGitRepoDirectory()).toAbsolutePath();
+        ExitCodes previousSweep = this.checkSweepFailures();
+        if (!Files.isDirectory(workDir, LinkOption.NOFOLLOW_LINKS)) {
+            log.error("Git repo dir specified in config is not a directory or does not exist?");
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+
+        // A daemon must not keep the old repository open while it is deleted
+        RepositorySession.evict(workDir.toFile());
+
+        Path tombstone = workDir.resolveSibling("." + workDir.getFileName() + TOMBSTONE_SUFFIX + System.currentTimeMillis());
+        try {
+            Files.move(workDir, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Unable to move {} out of the way", workDir.getFileName(), e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+
+        List<Path> tombstones = new ArrayList<>();
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(workDir.getParent(), "." + workDir.getFileName() + TOMBSTONE_SUFFIX + "*")) {
+            siblings.forEach(tombstones::add);
+        } catch (IOException e) {
+            log.warn("Unable to look for old tombstones of {}", workDir.getFileName(), e);
+            tombstones = List.of(tombstone);
+        }
+
+        if (!wait) {
+            if (TombstoneSweeper.spawn(this.getSweepFailuresFile(workDir), tombstones)) {
+                log.info("Deleting {} in the background", workDir.getFileName());
+                return previousSweep;
             }
+            log.info("Unable to delete {} in the background, deleting it now", workDir.getFileName());
+        }
 
-            boolean isDirDeleted = dir.delete();
-            if (!isDirDeleted) {
-                log.error("Unable to delete workdir directory: {}", dir.getName());
+        DirectoryDeleter deleter = new DirectoryDeleter();
+        try (Phase ignored = Timings.start("delete")) {
+            for (Path path : tombstones) {
+                deleter.delete(path);
             }
-            return ExitCodes.SUCCESSFUL;
         }
-        log.error("{} does not exist", dir.getName());
-        return ExitCodes.OPERATING_SYSTEM_ERROR;
+
+        if (!deleter.getFailures().isEmpty()) {
+            log.error("Unable to delete {} paths, for example {}", deleter.getFailures().size(), deleter.getFailures().peek());
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+        return previousSweep;
     }
 
-    public ExitCodes cleanWorkDir() {
-        File file = new File(this.getConfiguration().getGitRepoDirectory());
-        if (file.exists() && file.isDirectory()) {
-            return this.deleteDirectoryRecursively(file);
-        } else {
-            log.error("Git repo dir specified in config is not a directory or does not exist?");
+    /*
+        Reports the paths the last detached TombstoneSweeper could not delete and which still
+        exist. The failures file is removed afterwards, so every failure is reported once.
+     */
+    public ExitCodes checkSweepFailures() {
+        Path workDir = Path.of(this.getConfiguration().getGitRepoDirectory()).toAbsolutePath();
+        Path failuresFile = this.getSweepFailuresFile(workDir);
+        if (!Files.exists(failuresFile)) {
+            return ExitCodes.SUCCESSFUL;
+        }
+
+        List<String> remaining;
+        try {
+            remaining = Files.readAllLines(failuresFile, StandardCharsets.UTF_8).stream()
+                    .filter(path -> !path.isBlank() && Files.exists(Path.of(path), LinkOption.NOFOLLOW_LINKS))
+                    .toList();
+            Files.delete(failuresFile);
+        } catch (IOException e) {
+            log.error("Unable to read the failures of the last background delete of {} from {}", workDir.getFileName(), failuresFile, e);
             return ExitCodes.OPERATING_SYSTEM_ERROR;
         }
+
+        if (remaining.isEmpty()) {
+            return ExitCodes.SUCCESSFUL;
+        }
+        log.error("The last background delete of {} could not delete {} paths: {}{}", workDir.getFileName(), remaining.size(),
+                String.join(", ", remaining.subList(0, Math.min(remaining.size(), MAX_REPORTED_FAILURES))),
+                remaining.size() > MAX_REPORTED_FAILURES ? " and " + (remaining.size() - MAX_REPORTED_FAILURES) + " more" : "");
+        return ExitCodes.OPERATING_SYSTEM_ERROR;
+    }
+
+    private Path getSweepFailuresFile(Path workDir) {
+        return workDir.resolveSibling("." + workDir.getFileName() + SWEEP_FAILURES_SUFFIX);
     }
 
     public ExitCodes renamePatchesDirectory(File oldDirectory, File newDirectory) {
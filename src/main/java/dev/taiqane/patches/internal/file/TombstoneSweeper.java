@@ -0,0 +1,71 @@
+package dev.taiqane.patches.internal.file;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Deletes tombstones of the work directory in a process of its own, so clean returns as soon as
+    the work directory is renamed. The process outlives the command that started it. Whatever it
+    does not get to is swept by the next clean. The paths it could not delete are written to the
+    failures file, which the next clean or init reports, see FileService.checkSweepFailures().
+ */
+@Slf4j
+public final class TombstoneSweeper {
+
+    private TombstoneSweeper() {
+    }
+
+    /*
+        Starts the sweeper with the JVM and class path of this process. Returns false if that is
+        not possible, for example in a native image, so the caller can delete the tombstones itself.
+     */
+    static boolean spawn(Path failuresFile, List<Path> tombstones) {
+        String classPath = System.getProperty("java.class.path", "");
+        File java = Path.of(System.getProperty("java.home", ""), "bin", "java").toFile();
+        if (classPath.isBlank() || !java.canExecute()) {
+            return false;
+        }
+
+        List<String> command = new ArrayList<>(List.of(java.getPath(), "-cp", classPath, TombstoneSweeper.class.getName(), failuresFile.toString()));
+        tombstones.forEach(tombstone -> command.add(tombstone.toString()));
+        try {
+            new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return true;
+        } catch (IOException e) {
+            log.debug("Unable to start the tombstone sweeper", e);
+            return false;
+        }
+    }
+
+    /*
+        Arguments are the failures file followed by the tombstones.
+     */
+    public static void main(String[] args) {
+        DirectoryDeleter deleter = new DirectoryDeleter();
+        for (int i = 1; i < args.length; i++) {
+            deleter.delete(Path.of(args[i]));
+        }
+
+        Path failuresFile = Path.of(args[0]);
+        try {
+            if (deleter.getFailures().isEmpty()) {
+                Files.deleteIfExists(failuresFile);
+            } else {
+                Files.write(failuresFile, deleter.getFailures().stream().map(Path::toString).toList(), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            System.exit(2);
+        }
+        System.exit(deleter.getFailures().isEmpty() ? 0 : 1);
+    }
+}
@@ -0,0 +1,132 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+    Remembers which commit an applied patch produced. Every key chains the key of the previous
+    patch with the hash of the patch file, starting with the id of the base commit, so a key only
+    matches if the base and every patch before it are unchanged as well. The engine that applied
+    the patch is part of every link, a commit built with fuzz or a moved hunk must not be reused
+    by a run with stricter rules.
+
+    The cache lives in .git/patches-cache as "<key> <commit id>" lines.
+ */
+@Slf4j
+@Getter
+public class ApplyCache {
+    private static final String CACHE_FILE_NAME = "patches-cache";
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final File cacheFile;
+    private final Map<String, ObjectId> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private ApplyCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public static ApplyCache load(Repository repository) {
+        ApplyCache cache = new ApplyCache(new File(repository.getDirectory(), CACHE_FILE_NAME));
+        if (!cache.getCacheFile().exists()) {
+            return cache;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(cache.getCacheFile().toPath(), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 2 && ObjectId.isId(parts[1])) {
+                    cache.getEntries().put(parts[0], ObjectId.fromString(parts[1]));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read the apply cache, starting with an empty one", e);
+            cache.getEntries().clear();
+        }
+        return cache;
+    }
+
+    public static String chainKey(String previousKey, String engine, String patchHash) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(previousKey.getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) '\n');
+            digest.update(engine.getBytes(StandardCharsets.US_ASCII));
+            digest.update((byte) '\n');
+            digest.update(patchHash.getBytes(StandardCharsets.US_ASCII));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /*
+        Names the engine and settings a patch is applied with, "strict" for hunks at their exact
+        position only, otherwise the fuzz of the HunkLocator.
+     */
+    public static String engineOf(ApplyOptions options) {
+        return options.isStrict() ? "strict" : "fuzz=" + options.getFuzz();
+    }
+
+    /*
+        Returns the cached commit for the key, as long as it still exists in the object database.
+     */
+    public ObjectId lookup(Repository repository, String key) throws IOException {
+        ObjectId commitId = this.getEntries().get(key);
+        if (commitId == null) {
+            return null;
+        }
+        if (!repository.getObjectDatabase().has(commitId)) {
+            this.getEntries().remove(key);
+            return null;
+        }
+        return commitId;
+    }
+
+    public void put(String key, ObjectId commitId) {
+        this.getEntries().put(key, commitId.copy());
+    }
+
+    public void save() {
+        Path target = this.getCacheFile().toPath();
+        Path temp = target.resolveSibling(CACHE_FILE_NAME + ".tmp");
+
+        // The map is in access order, so only the least recently used entries are dropped
+        int skip = Math.max(0, this.getEntries().size() - MAX_ENTRIES);
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.US_ASCII)) {
+            for (Map.Entry<String, ObjectId> entry : this.getEntries().entrySet()) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                writer.write(entry.getKey() + " " + entry.getValue().name());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to write the apply cache", e);
+            return;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to replace the apply cache", e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Records the progress of an apply run in .git/patches-checkpoint, so a failed run can be
+    resumed with apply --continue or apply --from <patch> instead of replaying the whole series.
+
+    The first line holds the base commit, every following line one applied patch as
+    "<commit id> <apply cache key> <patch file name>".
+ */
+@Slf4j
+@Getter
+public class ApplyCheckpoint {
+    private static final String CHECKPOINT_FILE_NAME = "patches-checkpoint";
+    private static final String BASE_PREFIX = "base ";
+
+    private final File checkpointFile;
+    private final List<Entry> entries = new ArrayList<>();
+    private ObjectId baseCommitId;
+
+    private ApplyCheckpoint(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public static ApplyCheckpoint load(Repository repository) throws IOException {
+        ApplyCheckpoint checkpoint = new ApplyCheckpoint(new File(repository.getDirectory(), CHECKPOINT_FILE_NAME));
+        if (!checkpoint.getCheckpointFile().exists()) {
+            return checkpoint;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(checkpoint.getCheckpointFile().toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(BASE_PREFIX)) {
+                    checkpoint.baseCommitId = ObjectId.fromString(line.substring(BASE_PREFIX.length()).trim());
+                    continue;
+                }
+
+                String[] parts = line.split(" ", 3);
+                if (parts.length != 3 || !ObjectId.isId(parts[0])) {
+                    throw new IOException("Malformed apply checkpoint line: " + line);
+                }
+                checkpoint.getEntries().add(new Entry(ObjectId.fromString(parts[0]), parts[1], parts[2]));
+            }
+        }
+        return checkpoint;
+    }
+
+    public boolean exists() {
+        return this.getBaseCommitId() != null;
+    }
+
+    public void begin(ObjectId baseCommitId) {
+        this.baseCommitId = baseCommitId.copy();
+        this.getEntries().clear();
+    }
+
+    public Entry getLastEntry() {
+        return this.getEntries().isEmpty() ? null : this.getEntries().get(this.getEntries().size() - 1);
+    }
+
+    public Entry findEntry(String patchName) {
+        for (Entry entry : this.getEntries()) {
+            if (entry.getPatchName().equals(patchName)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /*
+        Drops every entry recorded after the given patch, or all entries if patchName is null.
+     */
+    public void truncateAfter(String patchName) {
+        if (patchName == null) {
+            this.getEntries().clear();
+            return;
+        }
+        Entry entry = this.findEntry(patchName);
+        if (entry != null) {
+            this.getEntries().subList(this.getEntries().indexOf(entry) + 1, this.getEntries().size()).clear();
+        }
+    }
+
+    public void record(String patchName, ObjectId commitId, String cacheKey) {
+        this.getEntries().add(new Entry(commitId.copy(), cacheKey, patchName));
+    }
+
+    public void save() throws IOException {
+        Path target = this.getCheckpointFile().toPath();
+        Path temp = target.resolveSibling(CHECKPOINT_FILE_NAME + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(BASE_PREFIX + this.getBaseCommitId().name());
+            writer.newLine();
+            for (Entry entry : this.getEntries()) {
+                writer.write(entry.getCommitId().name() + " " + entry.getCacheKey() + " " + entry.getPatchName());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void delete() {
+        if (this.getCheckpointFile().exists() && !this.getCheckpointFile().delete()) {
+            log.warn("Unable to delete the apply checkpoint {}", this.getCheckpointFile());
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final ObjectId commitId;
+        private final String cacheKey;
+        private final String patchName;
+    }
+}
@@ -0,0 +1,29 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ApplyOptions {
+    public static final int DEFAULT_LOOKAHEAD = 8;
+
+    private boolean inMemory = false;
+    private int lookahead = DEFAULT_LOOKAHEAD;
+    private boolean useCache = true;
+    private boolean resume = false;
+    // Patch file to resume at, or null to resume after the last patch of the checkpoint
+    private String fromPatch;
+    // Only check that every patch applies to HEAD, without a checkout or a commit
+    private boolean dryRun = false;
+    // Worker threads applying file-disjoint patches concurrently in in-memory mode, 1 disables it
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    // Number of leading and trailing context lines a hunk may ignore, hunks are moved to their nearest match regardless
+    private int fuzz = 0;
+    // Use JGit's PatchApplier, which only applies hunks at their exact position
+    private boolean strict = false;
+}
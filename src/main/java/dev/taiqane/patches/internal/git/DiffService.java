@@ -4,16 +4,34 @@ import dev.taiqane.patches.internal.error.ExitCodes;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.patch.FormatError;
+import org.eclipse.jgit.patch.Patch;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import dev.taiqane.patches.internal.git.PatchesDiff.DiffSections;
+import dev.taiqane.patches.internal.metrics.Phase;
+import dev.taiqane.patches.internal.metrics.Timings;
 
 /*
     This class represents a git diff which includes metadata (author, commit message etc.)
@@ -27,48 +45,160 @@ public class DiffService {
     private static final String HDR_DATE    = "Date: ";
     private static final String HDR_SUBJECT = "Subject: ";
     private static final String DIFF_START  = "diff --git ";
+    private static final byte[] DIFF_START_BYTES = DIFF_START.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HUNK_START_BYTES = "@@ ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] CHANGE_HEADER_BYTES = Arrays.stream(new String[]{
+            "new file mode ", "deleted file mode ", "old mode ", "new mode ",
+            "rename from ", "rename to ", "copy from ", "copy to ", "Binary files ", "GIT binary patch"
+    }).map(header -> header.getBytes(StandardCharsets.US_ASCII)).toArray(byte[][]::new);
+    private static final long MAP_THRESHOLD = 1024 * 1024;
 
     public ExitCodes writePatchWithHeader(File outFile, String diffText, String subject, String body, String authorName, String authorEmail, ZonedDateTime dateTime) {
+        byte[] content = this.renderPatch(diffText, subject, body, authorName, authorEmail, dateTime);
+        if (content == null) {
+            return ExitCodes.INTERNAL_ERROR;
+        }
+
+        try {
+            Files.write(outFile.toPath(), content);
+            return ExitCodes.SUCCESSFUL;
+        } catch (IOException e) {
+            log.error("Unable to write patch file to disk", e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+    }
+
+    /*
+        Like writePatchWithHeader(), but leaves the file alone if it already has the same content,
+        so its mtime stays untouched. Header lines named in ignoredHeaders (e.g. "Date") are not
+        taken into account for that comparison.
+     */
+    public WriteResult writePatchIfChanged(File outFile, String diffText, String subject, String body, String authorName, String authorEmail, ZonedDateTime dateTime, Set<String> ignoredHeaders) {
+        byte[] content = this.renderPatch(diffText, subject, body, authorName, authorEmail, dateTime);
+        if (content == null) {
+            return WriteResult.FAILED;
+        }
+
+        try {
+            Path path = outFile.toPath();
+            if (Files.isRegularFile(path) && this.hasSameContent(path, content, ignoredHeaders)) {
+                return WriteResult.UNCHANGED;
+            }
+
+            Files.write(path, content);
+            return WriteResult.WRITTEN;
+        } catch (IOException e) {
+            log.error("Unable to write patch file to disk", e);
+            return WriteResult.FAILED;
+        }
+    }
+
+    private boolean hasSameContent(Path path, byte[] content, Set<String> ignoredHeaders) throws IOException {
+        if (ignoredHeaders.isEmpty() && Files.size(path) != content.length) {
+            return false;
+        }
+
+        byte[] existing = Files.readAllBytes(path);
+        if (ignoredHeaders.isEmpty()) {
+            return Arrays.equals(existing, content);
+        }
+        return Arrays.equals(stripHeaders(existing, ignoredHeaders), stripHeaders(content, ignoredHeaders));
+    }
+
+    private static byte[] stripHeaders(byte[] content, Set<String> ignoredHeaders) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+        int pos = 0;
+
+        // Only the header block up to the first blank line is filtered
+        while (pos < content.length) {
+            int eol = pos;
+            while (eol < content.length && content[eol] != '\n') {
+                eol++;
+            }
+            int next = Math.min(eol + 1, content.length);
+
+            String line = new String(content, pos, eol - pos, StandardCharsets.UTF_8);
+            if (line.isBlank()) {
+                break;
+            }
+
+            int colon = line.indexOf(':');
+            if (colon < 0 || !ignoredHeaders.contains(line.substring(0, colon).trim())) {
+                out.write(content, pos, next - pos);
+            }
+            pos = next;
+        }
+
+        out.write(content, pos, content.length - pos);
+        return out.toByteArray();
+    }
+
+    private byte[] renderPatch(String diffText, String subject, String body, String authorName, String authorEmail, ZonedDateTime dateTime) {
         if (diffText == null || diffText.isBlank()) {
             log.error("No diff text found in commit!");
-            return ExitCodes.INTERNAL_ERROR;
+            return null;
         }
         if (!diffText.startsWith("diff --git ")) {
             log.error("The specified diff is incorrect!");
-            return ExitCodes.INTERNAL_ERROR;
+            return null;
         }
 
         if (authorName == null || authorName.isBlank()) {
             log.error("The name of the author is null or blank!");
-            return ExitCodes.INTERNAL_ERROR;
+            return null;
         }
 
         if (authorEmail == null || authorEmail.isBlank()) {
             log.error("The email of the author is null or blank!");
-            return ExitCodes.INTERNAL_ERROR;
+            return null;
+        }
+
+        StringBuilder w = new StringBuilder(diffText.length() + 256);
+        w.append(this.renderHeader(subject, body, authorName, authorEmail, dateTime));
+        w.append(diffText);
+        if (!diffText.endsWith("\n")) {
+            w.append("\n");
         }
+        return w.toString().getBytes(StandardCharsets.UTF_8);
+    }
 
+    private String renderHeader(String subject, String body, String authorName, String authorEmail, ZonedDateTime dateTime) {
         // RFC-1123 Datum erzeugen (z. B. "Tue, 12 Aug 2025 10:15:00 +0200")
         String rfc1123 = DateTimeFormatter.RFC_1123_DATE_TIME.format(dateTime);
 
-        try (Writer w = new OutputStreamWriter(new FileOutputStream(outFile, false), StandardCharsets.UTF_8)) {
-            // Header
-            w.write("From: " + authorName + " <" + authorEmail + ">\n");
-            w.write("Date: " + rfc1123 + "\n");
-            w.write("Subject: " + subject.strip() + "\n");
-            w.write("\n");
+        StringBuilder w = new StringBuilder(256);
+        // Header
+        w.append("From: ").append(authorName).append(" <").append(authorEmail).append(">\n");
+        w.append("Date: ").append(rfc1123).append("\n");
+        w.append("Subject: ").append(subject.strip()).append("\n");
+        w.append("\n");
 
-            // Body (optional)
-            String bodyStripped = body.strip();
-            if (!bodyStripped.isEmpty()) {
-                w.write(bodyStripped);
-                w.write("\n\n");
-            }
+        // Body (optional)
+        String bodyStripped = body == null ? "" : body.strip();
+        if (!bodyStripped.isEmpty()) {
+            w.append(bodyStripped);
+            w.append("\n\n");
+        }
+        return w.toString();
+    }
+
+    /*
+        Writes an already parsed patch, for example one read from a mbox. The diff goes from its
+        buffer straight into the file, so large diffs are never turned into a String.
+     */
+    public ExitCodes writePatch(File outFile, PatchesDiff diff) {
+        byte[] header = this.renderHeader(diff.getSubject(), diff.getBody(), diff.getAuthorName(), diff.getAuthorEmail(), diff.getAuthorDate())
+                .getBytes(StandardCharsets.UTF_8);
+        ByteBuffer content = diff.getDiffContent().duplicate();
+        boolean endsWithNewline = content.hasRemaining() && content.get(content.limit() - 1) == '\n';
 
-            if (!diffText.endsWith("\n")) {
-                diffText = diffText + "\n";
+        try (FileChannel channel = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer[] buffers = endsWithNewline
+                    ? new ByteBuffer[]{ByteBuffer.wrap(header), content}
+                    : new ByteBuffer[]{ByteBuffer.wrap(header), content, ByteBuffer.wrap(new byte[]{'\n'})};
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
             }
-            w.write(diffText);
             return ExitCodes.SUCCESSFUL;
         } catch (IOException e) {
             log.error("Unable to write patch file to disk", e);
@@ -76,85 +206,301 @@ public class DiffService {
         }
     }
 
+    /*
+        Parses a patch which is already in memory, for example one read from a PatchBundle.
+     */
+    public PatchesDiff readPatches(String fileName, ByteBuffer data) {
+        try (Phase phase = Timings.start("read", fileName)) {
+            phase.bytes(data.remaining());
+            PatchesDiff diff = this.parsePatch(data.asReadOnlyBuffer());
+            if (diff != null) {
+                diff.setContentHash(hash(data));
+                diff.setFileName(fileName);
+            }
+            return diff;
+        }
+    }
+
     public PatchesDiff readPatches(File file) {
+        try (Phase phase = Timings.start("read", file.getName());
+             FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            phase.bytes(channel.size());
+            ByteBuffer data = this.readContent(channel);
+
+            PatchesDiff diff = this.parsePatch(data.asReadOnlyBuffer());
+            if (diff != null) {
+                diff.setContentHash(hash(data));
+                diff.setFileName(file.getName());
+            }
+            return diff;
+        } catch (IOException e) {
+            log.error("Unable to read patch files from disk", e);
+        }
+
+        return null;
+    }
+
+    /*
+        Parses the header and body of a patch without touching its diff section, which can then be
+        copied straight from the channel starting at diffOffset. No content hash is computed.
+     */
+    public PatchesDiff readHeaders(FileChannel channel) throws IOException {
+        return this.parsePatch(this.readContent(channel).asReadOnlyBuffer());
+    }
+
+    private ByteBuffer readContent(FileChannel channel) throws IOException {
+        long size = channel.size();
+
+        // Large patches are mapped instead of read, so their diff never lands in the heap
+        if (size >= MAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        int read = 0;
+        while (data.hasRemaining() && read >= 0) {
+            read = channel.read(data);
+        }
+        data.flip();
+        return data;
+    }
+
+    /*
+        Finds the header, body and diff boundaries in one pass over the raw bytes. Only the header
+        lines and the body are decoded, the diff is handed out as a slice of the given buffer.
+     */
+    public PatchesDiff parsePatch(ByteBuffer data) {
+        PatchesDiff patchesDiff = new PatchesDiff();
+        int start = data.position();
+        int limit = data.limit();
+        int pos = start;
+        int bodyStart = -1;
+        int diffStart = -1;
+
+        DiffSections sections = DiffSections.HEADERS;
+
+        while (pos < limit) {
+            int eol = indexOf(data, (byte) '\n', pos, limit);
+            int lineEnd = eol < 0 ? limit : eol;
+            int next = eol < 0 ? limit : eol + 1;
+
+            if (startsWith(data, pos, lineEnd, DIFF_START_BYTES)) {
+                diffStart = pos;
+                break;
+            }
+
+            if (sections == DiffSections.HEADERS) {
+                String line = decode(data, pos, lineEnd).stripTrailing();
+                if (line.isBlank()) {
+                    sections = DiffSections.BODY;
+                    bodyStart = next;
+                } else if (!this.parseHeader(line, patchesDiff)) {
+                    return null;
+                }
+            }
+
+            pos = next;
+        }
+
+        int bodyEnd = diffStart < 0 ? limit : diffStart;
+        patchesDiff.setBodyOffset((bodyStart < 0 ? bodyEnd : bodyStart) - start);
+        patchesDiff.setBody(bodyStart < 0 ? "" : decode(data, bodyStart, bodyEnd));
+
+        if (diffStart < 0) {
+            patchesDiff.setDiffContent(ByteBuffer.allocate(0).asReadOnlyBuffer());
+            patchesDiff.setDiffOffset(limit - start);
+        } else {
+            patchesDiff.setDiffContent(data.slice(diffStart, limit - diffStart));
+            patchesDiff.setDiffOffset(diffStart - start);
+        }
+
+        return patchesDiff;
+    }
+
+    private boolean parseHeader(String line, PatchesDiff patchesDiff) {
+        if (line.startsWith(HDR_FROM)) {
+            String fromLine = line.substring(HDR_FROM.length());
+            int mailStart = fromLine.indexOf('<');
+            int mailEnd = fromLine.indexOf('>', mailStart + 1);
+
+            if (mailStart < 0 || mailEnd < 0) {
+                log.error("Unable to parse from line from patch");
+                return false;
+            }
+
+            patchesDiff.setAuthorName(fromLine.substring(0, mailStart).trim());
+            patchesDiff.setAuthorEmail(fromLine.substring(mailStart + 1, mailEnd).trim());
+        }
+
+        if (line.startsWith(HDR_DATE)) {
+            String dateLine = line.substring(HDR_DATE.length()).trim();
+
+            if (!this.parseAndSetAuthorDate(dateLine, patchesDiff)) {
+                log.error("Unable to parse date from line from patch");
+                return false;
+            }
+        }
+
+        // An empty subject loses its trailing space to the stripping of the line
+        if (line.startsWith(HDR_SUBJECT.strip())) {
+            patchesDiff.setSubject(line.substring(HDR_SUBJECT.strip().length()).trim());
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer data, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(ByteBuffer data, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data.get(from + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String hash(ByteBuffer data) {
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-            String line;
-            PatchesDiff patchesDiff = new PatchesDiff();
-            StringBuilder rawDiff = new StringBuilder();
-            StringBuilder rawBody = new StringBuilder();
-
-            DiffSections sections = DiffSections.HEADERS;
-
-            while ((line = reader.readLine()) != null) {
-                switch (sections) {
-                    case HEADERS -> {
-                        if (line.isBlank()) {
-                            sections = DiffSections.BODY;
-                            continue;
-                        }
-
-                        if (line.startsWith(DIFF_START)) {
-                            sections = DiffSections.DIFF;
-                            rawDiff.append(line).append("\n");
-                            continue;
-                        }
-
-                        if (line.startsWith(HDR_FROM)) {
-                            String fromLine = line.replace(HDR_FROM, "");
-                            String[] splitFromLine = fromLine.split("<");
-
-                            if (splitFromLine.length != 2) {
-                                log.error("Unable to parse from line from patch");
-                                return null;
-                            }
-
-                            String name = splitFromLine[0].trim();
-                            String mail = splitFromLine[1].trim().replace("<", "").replace(">", "");
-
-                            patchesDiff.setAuthorName(name);
-                            patchesDiff.setAuthorEmail(mail);
-                        }
-
-                        if (line.startsWith(HDR_DATE)) {
-                            String dateLine = line.replace(HDR_DATE, "").trim();
-
-                            if (!this.parseAndSetAuthorDate(dateLine, patchesDiff)) {
-                                log.error("Unable to parse date from line from patch");
-                                return null;
-                            }
-                        }
-
-                        if (line.startsWith(HDR_SUBJECT)) {
-                            String subjectLine = line.replace(HDR_SUBJECT, "").trim();
-                            patchesDiff.setSubject(subjectLine);
-                        }
-                    }
-                    case BODY -> {
-                        if (line.startsWith(DIFF_START)) {
-                            sections = DiffSections.DIFF;
-                            rawDiff.append(line).append("\n");
-                            continue;
-                        }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
 
-                        rawBody.append(line).append("\n");
+    /*
+        Hash of what a diff changes, in the spirit of git patch-id: file names, mode lines and the
+        added and removed lines are hashed, context lines, hunk positions and index lines are not.
+        A change therefore keeps its id when the base moves underneath it.
+     */
+    public static String changeId(ByteBuffer diff) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            int limit = diff.limit();
+            int pos = diff.position();
+            boolean inHunk = false;
 
-                    }
-                    case DIFF -> {
-                        rawDiff.append(line).append("\n");
+            while (pos < limit) {
+                int eol = indexOf(diff, (byte) '\n', pos, limit);
+                int lineEnd = eol < 0 ? limit : eol;
+                int next = eol < 0 ? limit : eol + 1;
+
+                boolean hashed;
+                if (startsWith(diff, pos, lineEnd, DIFF_START_BYTES)) {
+                    inHunk = false;
+                    hashed = true;
+                } else if (startsWith(diff, pos, lineEnd, HUNK_START_BYTES)) {
+                    inHunk = true;
+                    hashed = false;
+                } else if (inHunk) {
+                    byte first = lineEnd > pos ? diff.get(pos) : 0;
+                    hashed = first == '+' || first == '-';
+                } else {
+                    hashed = false;
+                    for (byte[] prefix : CHANGE_HEADER_BYTES) {
+                        hashed |= startsWith(diff, pos, lineEnd, prefix);
                     }
                 }
+
+                if (hashed) {
+                    digest.update(diff.slice(pos, lineEnd - pos));
+                    digest.update((byte) '\n');
+                }
+                pos = next;
             }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String decode(ByteBuffer data, int from, int to) {
+        return StandardCharsets.UTF_8.decode(data.slice(from, to - from)).toString();
+    }
+
+    /*
+        The checks of validatePatch() which do not parse the diff, for callers which only move
+        patches around and must not load a large diff into the heap like JGit's parser does.
+     */
+    public boolean hasValidHeaders(String patchName, PatchesDiff diff) {
+        if (diff.getAuthorName() == null || diff.getAuthorEmail() == null) {
+            log.error("Patch {} has no valid From header", patchName);
+            return false;
+        }
+        if (diff.getAuthorDate() == null) {
+            log.error("Patch {} has no valid Date header", patchName);
+            return false;
+        }
+        if (diff.getSubject() == null) {
+            log.error("Patch {} has no Subject header", patchName);
+            return false;
+        }
+        ByteBuffer diffContent = diff.getDiffContent();
+        if (diffContent == null || !startsWith(diffContent, diffContent.position(), diffContent.limit(), DIFF_START_BYTES)) {
+            log.error("Patch {} contains no diff", patchName);
+            return false;
+        }
+        return true;
+    }
 
-            patchesDiff.setBody(rawBody.toString());
-            patchesDiff.setDiffText(rawDiff.toString());
+    public boolean validatePatch(String patchName, PatchesDiff diff) {
+        if (!this.hasValidHeaders(patchName, diff)) {
+            return false;
+        }
 
-            return patchesDiff;
+        Patch patch = new Patch();
+        try (Phase phase = Timings.start("validate", patchName).bytes(diff.getDiffLength());
+             InputStream in = diff.openDiffStream()) {
+            patch.parse(in);
+            phase.touchedPaths(patch.getFiles().size());
         } catch (IOException e) {
-            log.error("Unable to read patch files from disk", e);
+            log.error("Unable to parse the diff of patch {}", patchName, e);
+            return false;
         }
 
-        return null;
+        boolean valid = true;
+        for (FormatError error : patch.getErrors()) {
+            if (error.getSeverity() == FormatError.Severity.ERROR) {
+                log.error("Patch {} is malformed: {}", patchName, error);
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    /*
+        Returns every path the diff reads or writes, rename and copy sources included.
+     */
+    public Set<String> listTouchedPaths(PatchesDiff diff) throws IOException {
+        Set<String> paths = new LinkedHashSet<>();
+        for (FileHeader header : this.parseFileHeaders(diff)) {
+            if (!DiffEntry.DEV_NULL.equals(header.getOldPath())) {
+                paths.add(header.getOldPath());
+            }
+            if (!DiffEntry.DEV_NULL.equals(header.getNewPath())) {
+                paths.add(header.getNewPath());
+            }
+        }
+        return paths;
+    }
+
+    public List<? extends FileHeader> parseFileHeaders(PatchesDiff diff) throws IOException {
+        Patch patch = new Patch();
+        try (InputStream in = diff.openDiffStream()) {
+            patch.parse(in);
+        }
+        return patch.getFiles();
     }
 
     private boolean parseAndSetAuthorDate(String s, PatchesDiff patchesDiff) {
@@ -165,4 +511,7 @@ public class DiffService {
         } catch (DateTimeParseException ignore) { return false; }
     }
 
-}
\ No newline at end of file
+    public static enum WriteResult {
+        WRITTEN, UNCHANGED, FAILED;
+    }
+}
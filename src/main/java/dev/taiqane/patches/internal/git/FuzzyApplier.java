@@ -0,0 +1,196 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.errors.PatchFormatException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.patch.FormatError;
+import org.eclipse.jgit.patch.Patch;
+import org.eclipse.jgit.patch.PatchApplier;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Applies a patch to a tree with the HunkLocator, so hunks whose context moved or changed a
+    little still apply, and reports where they landed. Binary patches, submodules and strict mode
+    go through JGit's PatchApplier, which only accepts hunks at their exact position. PatchApplier
+    reads the tree it patches from the object database, so the objects of a MemoryInserter are
+    persisted before.
+
+    The new tree is written with the TreeUpdater, next to it the changed paths are returned so
+    the caller can replay them on another tree, see ParallelApplier.
+ */
+@Slf4j
+@Getter
+public class FuzzyApplier {
+    private final Repository repository;
+    private final int fuzz;
+    private final boolean strict;
+
+    public FuzzyApplier(Repository repository, int fuzz, boolean strict) {
+        this.repository = repository;
+        this.fuzz = fuzz;
+        this.strict = strict;
+    }
+
+    public Result apply(ObjectReader reader, ObjectInserter inserter, RevTree tree, PatchesDiff diff) throws IOException, PatchFormatException {
+        Patch patch = new Patch();
+        try (InputStream in = diff.openDiffStream()) {
+            patch.parse(in);
+        }
+        if (patch.getErrors().stream().anyMatch(error -> error.getSeverity() == FormatError.Severity.ERROR)) {
+            throw new PatchFormatException(patch.getErrors());
+        }
+
+        if (this.isStrict() || patch.getFiles().stream().anyMatch(FuzzyApplier::needsPatchApplier)) {
+            return this.applyStrict(reader, inserter, tree, patch);
+        }
+
+        Map<String, TreeUpdater.Change> changes = new LinkedHashMap<>();
+        List<String> errors = new ArrayList<>();
+
+        for (FileHeader fileHeader : patch.getFiles()) {
+            String oldPath = fileHeader.getOldPath();
+            String newPath = fileHeader.getNewPath();
+            DiffEntry.ChangeType changeType = fileHeader.getChangeType();
+
+            if (changeType == DiffEntry.ChangeType.DELETE) {
+                if (lookup(reader, tree, changes, oldPath) == null) {
+                    errors.add(oldPath + ": cannot delete, the file does not exist");
+                } else {
+                    changes.put(oldPath, TreeUpdater.Change.delete());
+                }
+                continue;
+            }
+
+            TreeUpdater.Change existing = null;
+            if (changeType == DiffEntry.ChangeType.ADD) {
+                if (lookup(reader, tree, changes, newPath) != null) {
+                    errors.add(newPath + ": cannot create, the file already exists");
+                    continue;
+                }
+            } else {
+                existing = lookup(reader, tree, changes, oldPath);
+                if (existing == null) {
+                    errors.add(oldPath + ": cannot patch, the file does not exist");
+                    continue;
+                }
+            }
+
+            ObjectId blobId = existing == null ? null : existing.getId();
+            if (!fileHeader.getHunks().isEmpty() || blobId == null) {
+                byte[] preImage = blobId == null ? new byte[0] : reader.open(blobId, Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE);
+                HunkLocator.Result result = HunkLocator.apply(preImage, fileHeader, this.getFuzz());
+                if (result.getError() != null) {
+                    errors.add(newPath + ": " + result.getError());
+                    continue;
+                }
+                this.logPlacements(diff, newPath, result.getPlacements());
+                blobId = inserter.insert(Constants.OBJ_BLOB, result.getContent());
+            }
+
+            FileMode mode = fileHeader.getNewMode();
+            if (mode == null || mode == FileMode.MISSING) {
+                mode = existing != null ? existing.getMode() : FileMode.REGULAR_FILE;
+            }
+
+            if (changeType == DiffEntry.ChangeType.RENAME) {
+                changes.put(oldPath, TreeUpdater.Change.delete());
+            }
+            changes.put(newPath, new TreeUpdater.Change(mode, blobId));
+        }
+
+        if (!errors.isEmpty()) {
+            return new Result(null, Map.of(), errors);
+        }
+        return new Result(TreeUpdater.update(reader, inserter, tree, changes), changes, List.of());
+    }
+
+    /*
+        The hunks of binary patches cannot be located and submodules have no content to patch.
+     */
+    private static boolean needsPatchApplier(FileHeader fileHeader) {
+        return fileHeader.getPatchType() != FileHeader.PatchType.UNIFIED
+                || fileHeader.getOldMode() == FileMode.GITLINK
+                || fileHeader.getNewMode() == FileMode.GITLINK;
+    }
+
+    private Result applyStrict(ObjectReader reader, ObjectInserter inserter, RevTree tree, Patch patch) throws IOException {
+        if (inserter instanceof MemoryInserter memoryInserter) {
+            memoryInserter.persist();
+        }
+
+        PatchApplier.Result result = new PatchApplier(this.getRepository(), tree, inserter).applyPatch(patch);
+        if (!result.getErrors().isEmpty()) {
+            return new Result(null, Map.of(), result.getErrors().stream().map(error -> error.toString().strip()).toList());
+        }
+
+        Map<String, TreeUpdater.Change> changes = new LinkedHashMap<>();
+        for (FileHeader fileHeader : patch.getFiles()) {
+            for (String path : List.of(fileHeader.getOldPath(), fileHeader.getNewPath())) {
+                if (DiffEntry.DEV_NULL.equals(path)) {
+                    continue;
+                }
+                try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, result.getTreeId())) {
+                    changes.put(path, treeWalk == null ? TreeUpdater.Change.delete() : new TreeUpdater.Change(treeWalk.getFileMode(0), treeWalk.getObjectId(0)));
+                }
+            }
+        }
+        return new Result(result.getTreeId(), changes, List.of());
+    }
+
+    /*
+        The content of a path as far as the patch got, which matters when a patch touches a path twice.
+     */
+    private static TreeUpdater.Change lookup(ObjectReader reader, RevTree tree, Map<String, TreeUpdater.Change> changes, String path) throws IOException {
+        TreeUpdater.Change change = changes.get(path);
+        if (change != null) {
+            return change.getId() == null ? null : change;
+        }
+        try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, tree)) {
+            if (treeWalk == null || FileMode.TREE.equals(treeWalk.getRawMode(0))) {
+                return null;
+            }
+            return new TreeUpdater.Change(treeWalk.getFileMode(0), treeWalk.getObjectId(0));
+        }
+    }
+
+    private void logPlacements(PatchesDiff diff, String path, List<HunkLocator.Placement> placements) {
+        for (HunkLocator.Placement placement : placements) {
+            if (placement.getFuzz() > 0) {
+                log.warn("{}: hunk #{} of {} applied at line {} with fuzz {} (offset {} lines)",
+                        diff.getFileName(), placement.getHunk(), path, placement.getLine(), placement.getFuzz(), placement.getOffset());
+            } else if (placement.getOffset() != 0) {
+                log.info("{}: hunk #{} of {} applied at line {} (offset {} lines)",
+                        diff.getFileName(), placement.getHunk(), path, placement.getLine(), placement.getOffset());
+            }
+        }
+    }
+
+    /*
+        Either the new tree together with the new content of every touched path, or the errors
+        of the files which did not apply and no tree.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+        private final ObjectId treeId;
+        private final Map<String, TreeUpdater.Change> changes;
+        private final List<String> errors;
+    }
+}
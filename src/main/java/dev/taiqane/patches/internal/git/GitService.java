@@ -1,39 +1,67 @@
 package dev.taiqane.patches.internal.git;
 
+import dev.taiqane.patches.configuration.CloneMode;
 import dev.taiqane.patches.configuration.PatchesConfiguration;
 import dev.taiqane.patches.internal.TempStorage;
 import dev.taiqane.patches.internal.error.ExitCodes;
+import dev.taiqane.patches.internal.metrics.Phase;
+import dev.taiqane.patches.internal.metrics.Timings;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.ApplyResult;
+import org.eclipse.jgit.api.CheckoutCommand;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ResetCommand.ResetType;
-import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.RmCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 /*
@@ -48,16 +76,54 @@ public class GitService {
     private final DiffService diffService = new DiffService();
     private final PatchesConfiguration configuration;
     private final TempStorage tempStorage;
+    // Directory or PatchBundle the series is read from, null for the patches directory of the configuration
+    @Setter
+    private File patchesSource;
+
+    public File getPatchesSource() {
+        return this.patchesSource != null ? this.patchesSource : new File(this.getConfiguration().getPatchesDirectoryPath());
+    }
 
     public ExitCodes downloadRepository() {
+        File directory = new File(this.getConfiguration().getGitRepoDirectory());
+        RepositorySession.evict(directory);
+        if (this.getConfiguration().isMirrorCache()) {
+            return this.downloadRepositoryFromMirror(directory);
+        }
+        return this.cloneRepository(directory);
+    }
+
+    /*
+        Clones the base repository into the given directory, following clone mode and depth.
+     */
+    ExitCodes cloneRepository(File directory) {
         try {
             log.info("Start to download the repository");
-            Git.cloneRepository()
+            CloneCommand clone = Git.cloneRepository()
                     .setURI(configuration.getBaseRepoUrl())
                     .setBranch(configuration.getBaseRepoRef())
-                    .setDirectory(new File("_workdir"))
-                    .call();
-            log.info("Successfully downloaded the repository");
+                    .setDirectory(directory);
+
+            String baseRef = configuration.getBaseRepoRef();
+            if (configuration.getCloneMode() == CloneMode.SINGLE_BRANCH) {
+                clone.setBranchesToClone(List.of(baseRef.startsWith("refs/") ? baseRef : Constants.R_HEADS + baseRef))
+                        .setNoTags();
+            } else if (configuration.getCloneMode() == CloneMode.TAG) {
+                String tagRef = baseRef.startsWith("refs/") ? baseRef : Constants.R_TAGS + baseRef;
+                clone.setBranchesToClone(List.of(tagRef))
+                        .setBranch(tagRef)
+                        .setNoTags();
+            }
+
+            if (configuration.getCloneDepth() > 0) {
+                clone.setDepth(configuration.getCloneDepth());
+            }
+
+            try (Phase ignoredPhase = Timings.start("clone");
+                 Git ignored = clone.call()) {
+                log.info("Successfully downloaded the repository ({} clone{})", configuration.getCloneMode().toPropertyValue(),
+                        configuration.getCloneDepth() > 0 ? ", depth " + configuration.getCloneDepth() : "");
+            }
             return ExitCodes.SUCCESSFUL;
         } catch (GitAPIException e) {
             log.error("An error occurred at downloading the repository", e);
@@ -65,162 +131,777 @@ public class GitService {
         }
     }
 
+    private ExitCodes downloadRepositoryFromMirror(File directory) {
+        MirrorService mirrorService = new MirrorService(this.getConfiguration());
+        if (this.getConfiguration().getCloneDepth() > 0) {
+            log.info("Ignoring cloneDepth, the work directory uses the full history of the mirror");
+        }
+
+        try {
+            mirrorService.updateMirror();
+
+            try (Git git = mirrorService.createWorkDirectory(directory, this.getMirrorRefSpecs())) {
+                String baseRef = this.getConfiguration().getBaseRepoRef();
+                Ref remoteBranch = git.getRepository().exactRef(Constants.R_REMOTES + "origin/" + baseRef);
+
+                if (remoteBranch != null) {
+                    git.checkout()
+                            .setCreateBranch(true)
+                            .setName(baseRef)
+                            .setStartPoint(remoteBranch.getName())
+                            .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                            .call();
+                } else {
+                    ObjectId commit = this.resolveToCommit(git.getRepository(), baseRef);
+                    if (commit == null) {
+                        log.error("Could not find {} in the mirror of the base repository", baseRef);
+                        return ExitCodes.USAGE_ERROR;
+                    }
+                    git.checkout().setName(commit.getName()).call();
+                }
+            }
+
+            log.info("Successfully created the repository from the mirror in {}", mirrorService.getMirrorDirectory());
+            return ExitCodes.SUCCESSFUL;
+        } catch (Exception e) {
+            log.error("An error occurred at downloading the repository through the mirror cache", e);
+            return ExitCodes.INTERNAL_ERROR;
+        }
+    }
+
+    /*
+        Refs copied from the mirror into the work directory, following the configured clone mode
+     */
+    private List<RefSpec> getMirrorRefSpecs() {
+        String baseRef = this.getConfiguration().getBaseRepoRef();
+        return switch (this.getConfiguration().getCloneMode()) {
+            case FULL -> List.of(
+                    new RefSpec("+refs/heads/*:refs/remotes/origin/*"),
+                    new RefSpec("+refs/tags/*:refs/tags/*"));
+            case SINGLE_BRANCH -> List.of(new RefSpec("+" + Constants.R_HEADS + Repository.shortenRefName(baseRef)
+                    + ":" + Constants.R_REMOTES + "origin/" + Repository.shortenRefName(baseRef)));
+            case TAG -> {
+                String tagRef = baseRef.startsWith("refs/") ? baseRef : Constants.R_TAGS + baseRef;
+                yield List.of(new RefSpec("+" + tagRef + ":" + tagRef));
+            }
+        };
+    }
+
     public ExitCodes createGitPatch(String patchFileName) {
         File repoDir = new File(this.getConfiguration().getGitRepoDirectory());
 
         log.info("Starting to create a patch");
-        try (Repository repository = Git.open(repoDir).getRepository()) {
-            try (Git git = new Git(repository)) {
+        try (Git git = RepositorySession.open(repoDir)) {
+            Repository repository = git.getRepository();
 
-                Status status = git.status().call();
-                if (!status.isClean()) {
-                    log.error("Your repository is not in a clean state. Cannot create a patch from an unclean state");
-                    return ExitCodes.USAGE_ERROR;
-                }
+            if (!this.isClean(git)) {
+                log.error("Your repository is not in a clean state. Cannot create a patch from an unclean state");
+                return ExitCodes.USAGE_ERROR;
+            }
 
-                ObjectId oldCommitId = repository.resolve("HEAD~1");
-                ObjectId newCommitId = repository.resolve("HEAD");
+            ObjectId oldCommitId = repository.resolve("HEAD~1");
+            ObjectId newCommitId = repository.resolve("HEAD");
 
-                AbstractTreeIterator oldTreeIter = prepareTreeParser(repository, oldCommitId);
-                AbstractTreeIterator newTreeIter = prepareTreeParser(repository, newCommitId);
+            AbstractTreeIterator oldTreeIter = prepareTreeParser(repository, oldCommitId);
+            AbstractTreeIterator newTreeIter = prepareTreeParser(repository, newCommitId);
 
-                if (oldTreeIter == null || newTreeIter == null) {
-                    log.error("AbstractTreeIterator is null but should not be!");
-                    return ExitCodes.INTERNAL_ERROR;
+            if (oldTreeIter == null || newTreeIter == null) {
+                log.error("AbstractTreeIterator is null but should not be!");
+                return ExitCodes.INTERNAL_ERROR;
+            }
+
+            List<DiffEntry> diffs = git.diff()
+                    .setOldTree(oldTreeIter)
+                    .setNewTree(newTreeIter)
+                    .call();
+
+            File patchFile = new File(this.getConfiguration().getPatchesDirectoryPath() + "/" + patchFileName + ".patch");
+            String rawDiff = null;
+
+            try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+                 DiffFormatter formatter = new DiffFormatter(out)) {
+
+                formatter.setRepository(repository);
+                formatter.setDiffComparator(RawTextComparator.DEFAULT);
+                formatter.setDetectRenames(true);
+
+                for (DiffEntry entry : diffs) {
+                    formatter.format(entry);
                 }
 
-                List<DiffEntry> diffs = git.diff()
-                        .setOldTree(oldTreeIter)
-                        .setNewTree(newTreeIter)
-                        .call();
+                rawDiff = out.toString();
+            }
 
-                File patchFile = new File(this.getConfiguration().getPatchesDirectoryPath() + "/" + patchFileName + ".patch");
-                String rawDiff = null;
+            try (RevWalk walk = new RevWalk(repository)) {
+                RevCommit newCommit = walk.parseCommit(newCommitId);
+                PersonIdent author = newCommit.getAuthorIdent();
 
-                try (ByteArrayOutputStream out = new ByteArrayOutputStream();
-                     DiffFormatter formatter = new DiffFormatter(out)) {
+                String[] subjectAndBody = this.splitSubjectAndBody(newCommit.getFullMessage());
+                String subject = subjectAndBody[0];
+                String body = subjectAndBody[1];
 
-                    formatter.setRepository(repository);
-                    formatter.setDiffComparator(RawTextComparator.DEFAULT);
-                    formatter.setDetectRenames(true);
+                String name = (author.getName() != null) ? author.getName() : "Unknown Author";
+                String email = (author.getEmailAddress() != null) ? author.getEmailAddress() : "unknown@example.com";
 
-                    for (DiffEntry entry : diffs) {
-                        formatter.format(entry);
-                    }
+                ZonedDateTime authorDate = ZonedDateTime.ofInstant(author.getWhenAsInstant(), author.getZoneId());
 
-                    rawDiff = out.toString();
-                }
+                this.getDiffService().writePatchWithHeader(patchFile, rawDiff, subject, body, name, email, authorDate);
+                log.info("Patch successfully created and saved to disk! ({}.patch)", patchFileName);
+            }
 
-                try (RevWalk walk = new RevWalk(repository)) {
-                    RevCommit newCommit = walk.parseCommit(newCommitId);
-                    PersonIdent author = newCommit.getAuthorIdent();
+            return ExitCodes.SUCCESSFUL;
+        } catch (GitAPIException | IOException e) {
+            log.error("An error occurred at creating this patch", e);
+            return ExitCodes.INTERNAL_ERROR;
+        }
+    }
 
-                    String[] subjectAndBody = this.splitSubjectAndBody(newCommit.getFullMessage());
-                    String subject = subjectAndBody[0];
-                    String body = subjectAndBody[1];
+    /*
+        Patch files which no longer belong to a commit, for example because a subject changed,
+        are only deleted with prune. Otherwise they are reported, as they would stay part of the series.
+     */
+    public ExitCodes rebuildPatches(boolean prune) {
+        File repoDir = new File(this.getConfiguration().getGitRepoDirectory());
+        File patchesDirectory = new File(this.getConfiguration().getPatchesDirectoryPath());
 
-                    String name = (author.getName() != null) ? author.getName() : "Unknown Author";
-                    String email = (author.getEmailAddress() != null) ? author.getEmailAddress() : "unknown@example.com";
+        log.info("Starting to rebuild the patches from {}..HEAD", this.getConfiguration().getBaseRepoRef());
+        try (Git git = RepositorySession.open(repoDir)) {
+            Repository repository = git.getRepository();
 
-                    ZonedDateTime authorDate = ZonedDateTime.ofInstant(author.getWhenAsInstant(), author.getZoneId());
+            if (!this.isClean(git)) {
+                log.error("Your repository is not in a clean state. Cannot rebuild the patches from an unclean state");
+                return ExitCodes.USAGE_ERROR;
+            }
 
-                    this.getDiffService().writePatchWithHeader(patchFile, rawDiff, subject, body, name, email, authorDate);
-                    log.info("Patch successfully created and saved to disk! ({}.patch)", patchFileName);
+            ObjectId baseCommitId = this.resolveToCommit(repository, this.getConfiguration().getBaseRepoRef());
+            ObjectId headCommitId = repository.resolve(Constants.HEAD);
+            if (baseCommitId == null || headCommitId == null) {
+                log.error("Unable to resolve the base ref {} or HEAD", this.getConfiguration().getBaseRepoRef());
+                return ExitCodes.INTERNAL_ERROR;
+            }
+
+            List<RevCommit> commits = new ArrayList<>();
+            try (RevWalk walk = new RevWalk(repository)) {
+                walk.sort(RevSort.TOPO);
+                walk.sort(RevSort.REVERSE, true);
+                walk.markStart(walk.parseCommit(headCommitId));
+                walk.markUninteresting(walk.parseCommit(baseCommitId));
+
+                for (RevCommit commit : walk) {
+                    if (commit.getParentCount() != 1) {
+                        log.error("Commit {} has {} parents. Only a linear history can be turned into patches", commit.abbreviate(7).name(), commit.getParentCount());
+                        return ExitCodes.USAGE_ERROR;
+                    }
+                    walk.parseHeaders(commit.getParent(0));
+                    commits.add(commit);
                 }
+            }
 
+            if (commits.isEmpty()) {
+                log.warn("There are no commits between {} and HEAD", this.getConfiguration().getBaseRepoRef());
                 return ExitCodes.SUCCESSFUL;
             }
-        } catch (GitAPIException | IOException e) {
-            log.error("An error occurred at creating this patch", e);
+
+            Files.createDirectories(patchesDirectory.toPath());
+            List<String> fileNames = new ArrayList<>();
+            for (int i = 0; i < commits.size(); i++) {
+                fileNames.add(this.patchFileName(i + 1, commits.get(i).getShortMessage()));
+            }
+
+            Set<String> ignoredHeaders = this.getConfiguration().getVolatileHeaderNames();
+            List<ObjectReader> readers = new CopyOnWriteArrayList<>();
+            ThreadLocal<ObjectReader> threadReader = ThreadLocal.withInitial(() -> {
+                ObjectReader reader = repository.newObjectReader();
+                readers.add(reader);
+                return reader;
+            });
+
+            int written = 0;
+            int unchanged = 0;
+            int removed = 0;
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+            List<Future<DiffService.WriteResult>> results = new ArrayList<>();
+            try {
+                for (int i = 0; i < commits.size(); i++) {
+                    RevCommit commit = commits.get(i);
+                    File patchFile = new File(patchesDirectory, fileNames.get(i));
+                    results.add(executor.submit(() -> this.writeCommitAsPatch(repository, threadReader.get(), commit, patchFile, ignoredHeaders)));
+                }
+
+                // Collected in series order, so the log and the first reported error are deterministic
+                for (int i = 0; i < results.size(); i++) {
+                    switch (results.get(i).get()) {
+                        case WRITTEN -> {
+                            written++;
+                            log.info("Wrote patch {}", fileNames.get(i));
+                        }
+                        case UNCHANGED -> unchanged++;
+                        case FAILED -> {
+                            log.error("Unable to write patch {}", fileNames.get(i));
+                            return ExitCodes.INTERNAL_ERROR;
+                        }
+                    }
+                }
+            } finally {
+                // After an error the remaining patches must not be written, nor use a closed reader
+                results.forEach(result -> result.cancel(true));
+                executor.shutdownNow();
+                if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.warn("Patches are still being written after one minute");
+                }
+                readers.forEach(ObjectReader::close);
+            }
+
+            File[] existing = this.listPatchFiles();
+            if (existing != null) {
+                for (File file : existing) {
+                    if (fileNames.contains(file.getName())) {
+                        continue;
+                    }
+                    if (!prune) {
+                        log.warn("Patch {} belongs to no commit anymore, delete it or run rebuild-patches --prune", file.getName());
+                        continue;
+                    }
+                    if (!file.delete()) {
+                        log.error("Unable to delete the outdated patch {}", file.getName());
+                        return ExitCodes.OPERATING_SYSTEM_ERROR;
+                    }
+                    removed++;
+                    log.info("Removed outdated patch {}", file.getName());
+                }
+            }
+
+            log.info("Rebuilt {} patches: {} written, {} unchanged, {} removed", commits.size(), written, unchanged, removed);
+            return ExitCodes.SUCCESSFUL;
+        } catch (Exception e) {
+            log.error("An error occurred at rebuilding the patches", e);
             return ExitCodes.INTERNAL_ERROR;
         }
     }
 
-    public ExitCodes applyPatches() {
-        File[] patchFiles = new File(this.getConfiguration().getPatchesDirectoryPath()).listFiles((dir, name) -> name.toLowerCase().endsWith(".patch"));
+    private DiffService.WriteResult writeCommitAsPatch(Repository repository, ObjectReader reader, RevCommit commit, File patchFile, Set<String> ignoredHeaders) throws IOException {
+        String rawDiff;
+        try (Phase ignored = Timings.start("format", patchFile.getName());
+             ByteArrayOutputStream out = new ByteArrayOutputStream();
+             DiffFormatter formatter = new DiffFormatter(out)) {
 
-        if (patchFiles == null || patchFiles.length == 0) {
+            formatter.setReader(reader, repository.getConfig());
+            formatter.setDiffComparator(RawTextComparator.DEFAULT);
+            formatter.setDetectRenames(true);
+            formatter.format(commit.getParent(0).getTree(), commit.getTree());
+            formatter.flush();
+
+            rawDiff = out.toString(StandardCharsets.UTF_8);
+        }
+
+        PersonIdent author = commit.getAuthorIdent();
+        String[] subjectAndBody = this.splitSubjectAndBody(commit.getFullMessage());
+        String name = (author.getName() != null) ? author.getName() : "Unknown Author";
+        String email = (author.getEmailAddress() != null) ? author.getEmailAddress() : "unknown@example.com";
+        ZonedDateTime authorDate = ZonedDateTime.ofInstant(author.getWhenAsInstant(), author.getZoneId());
+
+        return this.getDiffService().writePatchIfChanged(patchFile, rawDiff, subjectAndBody[0], subjectAndBody[1], name, email, authorDate, ignoredHeaders);
+    }
+
+    /*
+        Same naming scheme as git format-patch: a running number and the sanitized subject.
+     */
+    private String patchFileName(int number, String subject) {
+        String slug = subject.replaceAll("[^A-Za-z0-9._]+", "-").replaceAll("^[-.]+|[-.]+$", "");
+        if (slug.length() > 52) {
+            slug = slug.substring(0, 52).replaceAll("[-.]+$", "");
+        }
+        return String.format("%04d-%s.patch", number, slug.isEmpty() ? "patch" : slug);
+    }
+
+    public ExitCodes applyPatches(ApplyOptions options) {
+        if (options.isDryRun()) {
+            return this.checkPatches(options, true);
+        }
+
+        SeriesIndex index;
+        try {
+            index = SeriesIndex.update(this.getDiffService(), this.getPatchesSource());
+        } catch (IOException e) {
+            log.error("Unable to index the patches", e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+
+        if (index.getEntries().isEmpty()) {
             log.error("No patches to apply found");
             return ExitCodes.SUCCESSFUL;
         }
 
-        try (Git git = Git.open(new File(this.getConfiguration().getGitRepoDirectory()))) {
+        try (Git git = RepositorySession.open(new File(this.getConfiguration().getGitRepoDirectory()))) {
 
-            Status status = git.status().call();
-            if (!status.isClean()) {
+            if (!this.isClean(git)) {
                 log.error("The repository is not in a clean state. To apply patches you need a clean repository!");
                 return ExitCodes.USAGE_ERROR;
             }
+            // Until the series went through, the working tree can be left in any state
+            RepositorySession.invalidateClean(git.getRepository());
 
-            for (File file : patchFiles) {
-                log.info("Applying patch {}", file.getName());
+            Repository repository = git.getRepository();
+            ObjectId headCommitId = repository.resolve(Constants.HEAD);
+            if (headCommitId == null) {
+                log.error("The repository has no HEAD commit to apply the patches on");
+                return ExitCodes.USAGE_ERROR;
+            }
 
-                PatchesDiff diff = this.getDiffService().readPatches(file);
+            List<SeriesIndex.Entry> series = index.getEntries();
+            ApplyCheckpoint checkpoint = ApplyCheckpoint.load(repository);
+            int startIndex = 0;
+            String cacheKey = headCommitId.name();
 
-                try (ByteArrayInputStream in = new ByteArrayInputStream(diff.getDiffText().getBytes(StandardCharsets.UTF_8))) {
-                    git.apply()
-                            .setPatch(in)
-                            .call();
+            if (options.isResume()) {
+                if (!checkpoint.exists()) {
+                    log.error("No apply checkpoint found to resume from. Run patches apply without --continue or --from");
+                    return ExitCodes.USAGE_ERROR;
+                }
 
-                    git.add().addFilepattern(".").call();
-                    git.add().setUpdate(true).addFilepattern(".").call();
+                String previousPatch;
+                if (options.getFromPatch() != null) {
+                    startIndex = index.indexOf(options.getFromPatch());
+                    if (startIndex < 0) {
+                        log.error("Patch {} is not part of the series", options.getFromPatch());
+                        return ExitCodes.USAGE_ERROR;
+                    }
+                    previousPatch = startIndex == 0 ? null : series.get(startIndex - 1).getFileName();
+                } else {
+                    ApplyCheckpoint.Entry last = checkpoint.getLastEntry();
+                    previousPatch = last == null ? null : last.getPatchName();
+                    startIndex = previousPatch == null ? 0 : index.indexOf(previousPatch) + 1;
+                    if (startIndex == 0 && previousPatch != null) {
+                        log.error("Patch {} from the checkpoint is no longer part of the series", previousPatch);
+                        return ExitCodes.USAGE_ERROR;
+                    }
+                }
 
-                    PersonIdent author = new PersonIdent(diff.getAuthorName(), diff.getAuthorEmail(), diff.getAuthorDate().toInstant(), diff.getAuthorDate().getZone());
+                ApplyCheckpoint.Entry previous = previousPatch == null ? null : checkpoint.findEntry(previousPatch);
+                if (previousPatch != null && previous == null) {
+                    log.error("The checkpoint has no record of patch {}. Resume from an earlier patch", previousPatch);
+                    return ExitCodes.USAGE_ERROR;
+                }
 
-                    String message = diff.getSubject() + "\n\n" + diff.getBody();
-                    git.commit()
-                            .setMessage(message)
-                            .setAuthor(author)
-                            .setCommitter(author)
-                            .call();
+                // The working tree is clean, so HEAD can be moved to the commit the patch before the start left
+                ObjectId expectedCommitId = previous == null ? checkpoint.getBaseCommitId() : previous.getCommitId();
+                if (!expectedCommitId.equals(headCommitId)) {
+                    if (!repository.getObjectDatabase().has(expectedCommitId)) {
+                        log.error("The checkpoint commit {} no longer exists. Run patches reset and apply the series without --continue or --from",
+                                expectedCommitId.abbreviate(7).name());
+                        return ExitCodes.USAGE_ERROR;
+                    }
+                    log.info("Moving HEAD from {} to the checkpoint commit {}", headCommitId.abbreviate(7).name(), expectedCommitId.abbreviate(7).name());
+                    RepositoryUtil.moveHead(repository, headCommitId, expectedCommitId, "patches: resume apply");
+                }
+
+                checkpoint.truncateAfter(previousPatch);
+                cacheKey = previous == null ? checkpoint.getBaseCommitId().name() : previous.getCacheKey();
+
+                if (startIndex >= series.size()) {
+                    log.info("All patches of the checkpoint are already applied");
+                    checkpoint.delete();
+                    return ExitCodes.SUCCESSFUL;
+                }
+                log.info("Resuming the series at patch {}", series.get(startIndex).getFileName());
+            } else {
+                if (checkpoint.exists()) {
+                    log.warn("Found the checkpoint of a failed apply. Use --continue to resume it, starting the series from HEAD");
+                }
+                checkpoint.begin(headCommitId);
+            }
+
+            return this.applySeries(git, options, index, series.subList(startIndex, series.size()), checkpoint, cacheKey);
+        } catch (Exception e) {
+            log.error("An error occurred at applying patch", e);
+            return ExitCodes.INTERNAL_ERROR;
+        }
+    }
+
+    private ExitCodes applySeries(Git git, ApplyOptions options, SeriesIndex index, List<SeriesIndex.Entry> entries, ApplyCheckpoint checkpoint, String cacheKey) throws IOException, InterruptedException {
+        Repository repository = git.getRepository();
+        ObjectId headCommitId = repository.resolve(Constants.HEAD);
 
-                    log.info("Applied patch {} successfully as commit", file.getName());
+        ApplyCache cache = options.isUseCache() ? ApplyCache.load(repository) : null;
+        String engine = ApplyCache.engineOf(options);
+
+        // The commit the series has reached so far and the commit that is checked out
+        ObjectId commitId = headCommitId;
+        ObjectId checkedOutId = headCommitId;
+
+        // The unchanged prefix of the series is found with the hashes of the index alone, so its
+        // patch files are not read at all
+        int reused = 0;
+        if (cache != null) {
+            for (SeriesIndex.Entry entry : entries) {
+                if (!entry.isValid()) {
+                    break;
+                }
+                String key = ApplyCache.chainKey(cacheKey, engine, entry.getContentHash());
+                ObjectId cachedCommitId = cache.lookup(repository, key);
+                if (cachedCommitId == null) {
+                    break;
+                }
+
+                log.debug("Reusing commit {} for unchanged patch {}", cachedCommitId.abbreviate(7).name(), entry.getFileName());
+                cacheKey = key;
+                commitId = cachedCommitId;
+                checkpoint.record(entry.getFileName(), commitId, cacheKey);
+                reused++;
+            }
+
+            if (reused == entries.size()) {
+                log.info("All {} patches are unchanged, reusing the cached result", reused);
+            } else if (reused > 0) {
+                log.info("Skipped {} unchanged patches using the apply cache", reused);
+            }
+        }
+
+        List<SeriesIndex.Entry> remaining = entries.subList(reused, entries.size());
+        if (options.isInMemory() && options.getJobs() > 1 && remaining.size() > 1) {
+            return this.applySeriesInParallel(repository, options, index, remaining, checkpoint, cacheKey, cache, headCommitId, commitId);
+        }
+
+        try (PatchPipeline pipeline = new PatchPipeline(this.getDiffService(), index, remaining, options.getLookahead());
+             InMemoryApplier applier = new InMemoryApplier(repository, options)) {
+
+            while (pipeline.hasNext()) {
+                PatchPipeline.Entry entry = pipeline.next();
+                String name = entry.getFileName();
+                PatchesDiff diff = entry.getDiff();
+
+                if (diff == null) {
+                    log.error("Unable to read patch {}", name);
+                    this.saveCheckpoint(applier, checkpoint, checkedOutId, commitId);
+                    return ExitCodes.INTERNAL_ERROR;
+                }
+
+                cacheKey = ApplyCache.chainKey(cacheKey, engine, diff.getContentHash());
+
+                log.info("Applying patch {}", name);
+                try {
+                    if (options.isInMemory()) {
+                        commitId = applier.applyPatch(commitId, diff);
+                    } else if (!options.isStrict()) {
+                        // Hunks are located on the tree, the working tree follows every commit
+                        commitId = applier.applyPatch(commitId, diff);
+                        applier.checkout(checkedOutId, commitId);
+                        checkedOutId = commitId;
+                    } else {
+                        if (!checkedOutId.equals(commitId)) {
+                            try (Phase ignored = Timings.start("checkout", name)) {
+                                RepositoryUtil.moveHead(repository, checkedOutId, commitId, "patches: fast-forward to cached series");
+                            }
+                            checkedOutId = commitId;
+                        }
+                        commitId = this.applyPatchToWorkTree(git, diff);
+                        checkedOutId = commitId;
+                    }
                 } catch (GitAPIException | IOException e) {
-                    log.error("An error occurred at applying patch {} ", file.getName(), e);
+                    log.error("An error occurred at applying patch {} ", name, e);
+                    if (!options.isInMemory() && options.isStrict()) {
+                        this.restoreTouchedPaths(git, diff);
+                    }
+                    this.saveCheckpoint(applier, checkpoint, checkedOutId, commitId);
+                    log.error("Fix the patch and run 'patches apply --continue' to resume at {}", name);
+                    return ExitCodes.INTERNAL_ERROR;
+                }
+
+                checkpoint.record(name, commitId, cacheKey);
+                if (!options.isInMemory()) {
+                    checkpoint.save();
+                }
+                if (cache != null) {
+                    cache.put(cacheKey, commitId);
+                }
+                log.info("Applied patch {} successfully as commit {}", name, commitId.abbreviate(7).name());
+            }
+
+            if (!checkedOutId.equals(commitId)) {
+                log.info("Checking out the result of {} patches", entries.size());
+                applier.checkout(checkedOutId, commitId);
+            }
+
+            if (cache != null) {
+                cache.save();
+            }
+            checkpoint.delete();
+            RepositorySession.markClean(repository);
+            return ExitCodes.SUCCESSFUL;
+        }
+    }
+
+    /*
+        In-memory apply with the hunks of file-disjoint patches applied concurrently by the
+        ParallelApplier, while the commits are still created one after the other in series order.
+     */
+    private ExitCodes applySeriesInParallel(Repository repository, ApplyOptions options, SeriesIndex index, List<SeriesIndex.Entry> entries, ApplyCheckpoint checkpoint,
+                                            String cacheKey, ApplyCache cache, ObjectId headCommitId, ObjectId commitId) throws IOException, InterruptedException {
+        try (ParallelApplier parallelApplier = new ParallelApplier(this.getDiffService(), repository, index, entries, options);
+             InMemoryApplier applier = new InMemoryApplier(repository, options)) {
+            String engine = ApplyCache.engineOf(options);
+            parallelApplier.start(applier.getWalk().parseCommit(commitId).getTree());
+
+            for (int i = 0; i < entries.size(); i++) {
+                String name = entries.get(i).getFileName();
+                ParallelApplier.Outcome outcome = parallelApplier.await(i);
+
+                if (outcome.getError() != null) {
+                    log.error("An error occurred at applying patch {} ", name, outcome.getError());
+                    this.saveCheckpoint(applier, checkpoint, headCommitId, commitId);
+                    log.error("Fix the patch and run 'patches apply --continue' to resume at {}", name);
                     return ExitCodes.INTERNAL_ERROR;
                 }
+
+                PatchesDiff diff = outcome.getDiff();
+                cacheKey = ApplyCache.chainKey(cacheKey, engine, diff.getContentHash());
+                commitId = applier.commitChanges(commitId, diff, outcome.getChanges());
+
+                checkpoint.record(name, commitId, cacheKey);
+                if (cache != null) {
+                    cache.put(cacheKey, commitId);
+                }
+                log.info("Applied patch {} successfully as commit {}", name, commitId.abbreviate(7).name());
+            }
+
+            log.info("Checking out the result of {} patches", entries.size());
+            applier.checkout(headCommitId, commitId);
+
+            if (cache != null) {
+                cache.save();
+            }
+            checkpoint.delete();
+            RepositorySession.markClean(repository);
+            return ExitCodes.SUCCESSFUL;
+        }
+    }
+
+    /*
+        Checks out the last commit the series reached before it failed and records it, so the
+        run can be resumed from there.
+     */
+    private void saveCheckpoint(InMemoryApplier applier, ApplyCheckpoint checkpoint, ObjectId checkedOutId, ObjectId commitId) {
+        try {
+            if (!checkedOutId.equals(commitId)) {
+                applier.checkout(checkedOutId, commitId);
+            }
+            checkpoint.save();
+        } catch (IOException e) {
+            log.error("Unable to save the apply checkpoint", e);
+        }
+    }
+
+    /*
+        Puts the paths a failed patch may have partially written back to the state of HEAD.
+     */
+    private void restoreTouchedPaths(Git git, PatchesDiff diff) {
+        try {
+            Repository repository = git.getRepository();
+            RevCommit head = repository.parseCommit(repository.resolve(Constants.HEAD));
+            CheckoutCommand checkout = git.checkout().setStartPoint(head);
+            boolean hasTrackedPaths = false;
+
+            for (String path : this.getDiffService().listTouchedPaths(diff)) {
+                boolean tracked;
+                try (TreeWalk treeWalk = TreeWalk.forPath(repository, path, head.getTree())) {
+                    tracked = treeWalk != null;
+                }
+                if (tracked) {
+                    checkout.addPath(path);
+                    hasTrackedPaths = true;
+                } else {
+                    git.rm().setCached(true).addFilepattern(path).call();
+                    Files.deleteIfExists(repository.getWorkTree().toPath().resolve(path));
+                }
+            }
+
+            if (hasTrackedPaths) {
+                checkout.call();
+            }
+        } catch (GitAPIException | IOException e) {
+            log.error("Unable to restore the paths of the failed patch. Run patches reset before resuming", e);
+        }
+    }
+
+    ObjectId applyPatchToWorkTree(Git git, PatchesDiff diff) throws GitAPIException, IOException {
+        ApplyResult result;
+        try (Phase phase = Timings.start("apply", diff.getFileName()).bytes(diff.getDiffLength());
+             InputStream in = diff.openDiffStream()) {
+            result = git.apply()
+                    .setPatch(in)
+                    .call();
+            phase.touchedPaths(result.getUpdatedFiles().size());
+        }
+
+        try (Phase ignored = Timings.start("stage", diff.getFileName())) {
+            this.stageAppliedPaths(git, result);
+        }
+
+        PersonIdent author = new PersonIdent(diff.getAuthorName(), diff.getAuthorEmail(), diff.getAuthorDate().toInstant(), diff.getAuthorDate().getZone());
+
+        String message = diff.getSubject() + "\n\n" + diff.getBody();
+        try (Phase ignored = Timings.start("commit", diff.getFileName())) {
+            return git.commit()
+                    .setMessage(message)
+                    .setAuthor(author)
+                    .setCommitter(author)
+                    .call();
+        }
+    }
+
+    /*
+        Reports which patches are applied in the workdir, differ from their commit, are missing or
+        exist only as a commit. Only commits and trees are compared, the working tree is left alone
+        unless checkWorkTree is set.
+     */
+    public ExitCodes showStatus(boolean checkWorkTree) {
+        File repoDir = new File(this.getConfiguration().getGitRepoDirectory());
+        if (!repoDir.exists()) {
+            log.error("No workdir found, run patches init first");
+            return ExitCodes.USAGE_ERROR;
+        }
+
+        try (Git git = RepositorySession.open(repoDir)) {
+            Repository repository = git.getRepository();
+            SeriesIndex index = SeriesIndex.update(this.getDiffService(), this.getPatchesSource());
+
+            ObjectId baseCommitId = this.resolveToCommit(repository, this.getConfiguration().getBaseRepoRef());
+            ObjectId headCommitId = repository.resolve(Constants.HEAD);
+            if (baseCommitId == null || headCommitId == null) {
+                log.error("Unable to resolve the base ref {} or HEAD", this.getConfiguration().getBaseRepoRef());
+                return ExitCodes.INTERNAL_ERROR;
+            }
+
+            SeriesStatus status;
+            try (Phase ignored = Timings.start("compare")) {
+                status = SeriesStatus.compute(repository, baseCommitId, headCommitId, index);
+            }
+
+            for (SeriesStatus.Item item : status.getItems()) {
+                String state = item.getState().name().toLowerCase();
+                switch (item.getState()) {
+                    case APPLIED, MODIFIED -> log.info("{} {} as {}", String.format("%-10s", state), item.getPatch().getFileName(), item.getCommit().abbreviate(7).name());
+                    case MISSING, UNREADABLE -> log.info("{} {}", String.format("%-10s", state), item.getPatch().getFileName());
+                    case NEW -> log.info("{} {} {}", String.format("%-10s", state), item.getCommit().abbreviate(7).name(), item.getCommit().getShortMessage());
+                }
+            }
+
+            log.info("{} applied, {} modified, {} missing, {} new, {} unreadable",
+                    status.count(SeriesStatus.State.APPLIED), status.count(SeriesStatus.State.MODIFIED), status.count(SeriesStatus.State.MISSING),
+                    status.count(SeriesStatus.State.NEW), status.count(SeriesStatus.State.UNREADABLE));
+
+            if (checkWorkTree && !this.isClean(git)) {
+                log.warn("The working tree has uncommitted changes");
             }
             return ExitCodes.SUCCESSFUL;
         } catch (Exception e) {
-            log.error("An error occurred at applying patch", e);
+            log.error("An error occurred at comparing the workdir with the patches", e);
+            return ExitCodes.INTERNAL_ERROR;
+        }
+    }
+
+    /*
+        Applies every patch in memory, either on top of the base ref or of HEAD, and reports all
+        patches which do not apply. Nothing is checked out or committed.
+     */
+    public ExitCodes checkPatches(ApplyOptions options, boolean againstHead) {
+        File repoDir = new File(this.getConfiguration().getGitRepoDirectory());
+        if (!repoDir.exists()) {
+            log.error("No workdir found, run patches init first");
+            return ExitCodes.USAGE_ERROR;
+        }
+
+        try (Git git = RepositorySession.open(repoDir)) {
+            Repository repository = git.getRepository();
+            SeriesIndex index = SeriesIndex.update(this.getDiffService(), this.getPatchesSource());
+            if (index.getEntries().isEmpty()) {
+                log.error("No patches to check found");
+                return ExitCodes.SUCCESSFUL;
+            }
+
+            String startRef = againstHead ? Constants.HEAD : this.getConfiguration().getBaseRepoRef();
+            ObjectId startCommitId = againstHead ? repository.resolve(Constants.HEAD) : this.resolveToCommit(repository, startRef);
+            if (startCommitId == null) {
+                log.error("Unable to resolve {} to check the patches against", startRef);
+                return ExitCodes.INTERNAL_ERROR;
+            }
+
+            log.info("Checking {} patches against {}", index.getEntries().size(), startRef);
+            List<SeriesCheck.Result> results = new SeriesCheck(this.getDiffService(), repository, index, options).run(startCommitId);
+
+            int failed = 0;
+            int skipped = 0;
+            for (int i = 0; i < results.size(); i++) {
+                String name = index.getEntries().get(i).getFileName();
+                SeriesCheck.Result result = results.get(i);
+                switch (result.getState()) {
+                    case OK -> log.debug("Patch {} applies", name);
+                    case FAILED -> {
+                        failed++;
+                        log.error("Patch {} does not apply", name);
+                        result.getMessages().forEach(message -> log.error("    {}", message));
+                    }
+                    case UNREADABLE -> {
+                        failed++;
+                        log.error("Patch {} cannot be read", name);
+                    }
+                    case SKIPPED -> {
+                        skipped++;
+                        log.warn("Patch {} was not checked. {}", name, result.getMessages().getFirst());
+                    }
+                }
+            }
+
+            if (failed > 0) {
+                log.error("{} of {} patches do not apply on {}, {} could not be checked", failed, results.size(), startRef, skipped);
+                return ExitCodes.INTERNAL_ERROR;
+            }
+            log.info("All {} patches apply on {}", results.size(), startRef);
+            return ExitCodes.SUCCESSFUL;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while checking the patches", e);
+            return ExitCodes.INTERNAL_ERROR;
+        } catch (Exception e) {
+            log.error("An error occurred at checking the patches", e);
             return ExitCodes.INTERNAL_ERROR;
         }
     }
 
-    public ExitCodes resetRepository() {
+    public ExitCodes resetRepository(boolean offline) {
         if (!new File(this.getConfiguration().getGitRepoDirectory()).exists()) {
             log.error("No git directory found to reset!");
             return ExitCodes.USAGE_ERROR;
         }
 
-        try (Git git = Git.open(new File(this.getConfiguration().getGitRepoDirectory()))) {
+        try (Git git = RepositorySession.open(new File(this.getConfiguration().getGitRepoDirectory()))) {
 
-            git.clean()
-                    .setCleanDirectories(true)
-                    .setForce(true)
-                    .call();
-
-            git.fetch()
-                    .setRemote("origin")
-                    .setRefSpecs(
-                            new RefSpec("+refs/heads/*:refs/remotes/origin/*"),
-                            new RefSpec("+refs/tags/*:refs/tags/*")
-                    )
-                    .setTagOpt(TagOpt.FETCH_TAGS)
-                    .call();
+            if (offline) {
+                log.info("Offline mode, resolving {} from the local refs only", this.getConfiguration().getBaseRepoRef());
+            } else {
+                try (Phase ignored = Timings.start("fetch")) {
+                    this.fetchBaseRef(git);
+                }
+            }
 
             ObjectId targetCommit = this.resolveToCommit(git.getRepository(), this.getConfiguration().getBaseRepoRef());
             if (targetCommit == null) {
-                log.error("Could not found commit id for base ref");
+                log.error(offline ? "Base ref is not available locally, run reset without --offline" : "Could not found commit id for base ref");
                 return ExitCodes.INTERNAL_ERROR;
             }
 
-            git.reset()
-                    .setMode(ResetType.HARD)
-                    .setRef(targetCommit.getName())
-                    .call();
+            boolean knownClean = RepositorySession.isKnownClean(git.getRepository());
+            RepositorySession.invalidateClean(git.getRepository());
 
-            log.info("Successfully reset the repository");
+            int restored;
+            try (Phase phase = Timings.start("restore")) {
+                restored = RepositoryUtil.restoreToCommit(git, targetCommit, "patches: reset to " + this.getConfiguration().getBaseRepoRef(), knownClean);
+                phase.touchedPaths(restored);
+            }
+            RepositorySession.markClean(git.getRepository());
+
+            log.info("Successfully reset the repository ({} paths restored)", restored);
             return ExitCodes.SUCCESSFUL;
         } catch (Exception e) {
             log.error("An error occurred at resetting repository", e);
@@ -228,34 +909,431 @@ public class GitService {
         }
     }
 
+    /*
+        Fetches only what resolveToCommit() needs: nothing for a commit that is already present,
+        otherwise the single branch or tag. Short names are tried as a branch first unless they are
+        known as a tag locally, because a missing source ref fails the fetch.
+     */
+    private void fetchBaseRef(Git git) throws IOException, GitAPIException {
+        Repository repository = git.getRepository();
+        String baseRef = this.getConfiguration().getBaseRepoRef();
+
+        if (this.looksLikeFullSha1(baseRef) && repository.getObjectDatabase().has(ObjectId.fromString(baseRef))) {
+            log.info("Base commit {} is already present, skipping fetch", baseRef);
+            return;
+        }
+
+        String remote = "origin";
+        if (this.getConfiguration().isMirrorCache()) {
+            MirrorService mirrorService = new MirrorService(this.getConfiguration());
+            mirrorService.updateMirror();
+            remote = mirrorService.getMirrorDirectory().getAbsolutePath();
+        }
+
+        TransportException lastError = null;
+        for (RefSpec refSpec : this.getBaseRefSpecCandidates(repository, baseRef)) {
+            try {
+                git.fetch()
+                        .setRemote(remote)
+                        .setRefSpecs(refSpec)
+                        .setTagOpt(TagOpt.NO_TAGS)
+                        .call();
+                return;
+            } catch (TransportException e) {
+                log.debug("Fetching {} failed", refSpec, e);
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    private List<RefSpec> getBaseRefSpecCandidates(Repository repository, String baseRef) throws IOException {
+        if (this.looksLikeFullSha1(baseRef)) {
+            // A missing commit can only be found through the branches
+            return List.of(new RefSpec("+refs/heads/*:refs/remotes/origin/*"));
+        }
+
+        if (baseRef.startsWith(Constants.R_HEADS)) {
+            String branch = Repository.shortenRefName(baseRef);
+            return List.of(new RefSpec("+" + baseRef + ":" + Constants.R_REMOTES + "origin/" + branch));
+        }
+
+        if (baseRef.startsWith("refs/")) {
+            return List.of(new RefSpec("+" + baseRef + ":" + baseRef));
+        }
+
+        RefSpec branch = new RefSpec("+" + Constants.R_HEADS + baseRef + ":" + Constants.R_REMOTES + "origin/" + baseRef);
+        RefSpec tag = new RefSpec("+" + Constants.R_TAGS + baseRef + ":" + Constants.R_TAGS + baseRef);
+        if (this.getConfiguration().getCloneMode() == CloneMode.TAG || repository.exactRef(Constants.R_TAGS + baseRef) != null) {
+            return List.of(tag, branch);
+        }
+        return List.of(branch, tag);
+    }
+
     public ExitCodes convertPatchesToGitPatches() {
-        File[] patchFiles = new File(this.getConfiguration().getPatchesDirectoryPath()).listFiles((dir, name) -> name.toLowerCase().endsWith(".patch"));
+        // A bundle is converted straight from its mapping, without unpacking it first
+        List<Callable<ExitCodes>> conversions = new ArrayList<>();
+        Path outputDirectory = Path.of("converted");
 
-        if (patchFiles == null || patchFiles.length == 0) {
+        if (this.getPatchesSource().isFile()) {
+            PatchBundle bundle;
+            try {
+                bundle = PatchBundle.open(this.getPatchesSource());
+            } catch (IOException e) {
+                log.error("Unable to open the patch bundle {}", this.getPatchesSource(), e);
+                return ExitCodes.OPERATING_SYSTEM_ERROR;
+            }
+            for (PatchBundle.Entry entry : bundle.getEntries().values()) {
+                conversions.add(() -> this.convertBundledPatch(bundle, entry, outputDirectory.resolve(entry.getName())));
+            }
+        } else {
+            File[] patchFiles = this.listPatchFiles();
+            for (File file : patchFiles == null ? new File[0] : patchFiles) {
+                conversions.add(() -> this.convertPatch(file, outputDirectory.resolve(file.getName())));
+            }
+        }
+
+        if (conversions.isEmpty()) {
             log.error("No patches to convert found");
             return ExitCodes.SUCCESSFUL;
         }
 
         try {
-            Files.createDirectories(Path.of("converted"));
+            Files.createDirectories(outputDirectory);
         } catch (IOException e) {
             log.error("Unable to create converted directory", e);
             return ExitCodes.OPERATING_SYSTEM_ERROR;
         }
 
-        for (File file : patchFiles) {
-            PatchesDiff diff = this.getDiffService().readPatches(file);
-            try (FileWriter writer = new FileWriter(new File("converted", file.getName()))) {
-                writer.write(diff.getDiffText());
-                log.info("Successfully converted patch {}", file.getName());
-            } catch (IOException e) {
-                log.error("Unable to write converted patches to disk", e);
-                return ExitCodes.OPERATING_SYSTEM_ERROR;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(conversions.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<ExitCodes>> results = new ArrayList<>();
+            for (Callable<ExitCodes> conversion : conversions) {
+                results.add(executor.submit(conversion));
             }
+
+            // Every file is converted, the first failure in series order decides the exit code
+            ExitCodes exitCode = ExitCodes.SUCCESSFUL;
+            int failed = 0;
+            for (Future<ExitCodes> result : results) {
+                ExitCodes fileResult = result.get();
+                if (fileResult != ExitCodes.SUCCESSFUL) {
+                    failed++;
+                    if (exitCode == ExitCodes.SUCCESSFUL) {
+                        exitCode = fileResult;
+                    }
+                }
+            }
+
+            if (failed > 0) {
+                log.error("Unable to convert {} of {} patches", failed, conversions.size());
+            } else {
+                log.info("Successfully converted {} patches", conversions.size());
+            }
+            return exitCode;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while converting patches", e);
+            return ExitCodes.INTERNAL_ERROR;
+        } catch (ExecutionException e) {
+            log.error("An error occurred at converting patches", e.getCause());
+            return ExitCodes.INTERNAL_ERROR;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /*
+        Copies the diff section of a patch to outFile without decoding it. Only the headers are
+        parsed, the diff itself goes from channel to channel.
+     */
+    private ExitCodes convertPatch(File patchFile, Path outFile) {
+        try (Phase phase = Timings.start("convert", patchFile.getName());
+             FileChannel in = FileChannel.open(patchFile.toPath(), StandardOpenOption.READ)) {
+
+            PatchesDiff diff = this.getDiffService().readHeaders(in);
+            if (diff == null) {
+                log.error("Unable to parse patch {}", patchFile.getName());
+                return ExitCodes.INTERNAL_ERROR;
+            }
+
+            long position = diff.getDiffOffset();
+            long size = in.size();
+            phase.bytes(size - position);
+
+            try (FileChannel out = FileChannel.open(outFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (position < size) {
+                    long transferred = in.transferTo(position, size - position, out);
+                    if (transferred <= 0) {
+                        throw new IOException("No progress copying " + patchFile.getName() + " at offset " + position);
+                    }
+                    position += transferred;
+                }
+            }
+
+            log.info("Successfully converted patch {}", patchFile.getName());
+            return ExitCodes.SUCCESSFUL;
+        } catch (IOException e) {
+            log.error("Unable to convert patch {}", patchFile.getName(), e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+    }
+
+    /*
+        Writes the patches of the patches directory into one bundle file, in series order.
+     */
+    public ExitCodes packPatches(File bundleFile, boolean compress) {
+        File[] patchFiles = this.listPatchFiles();
+        if (patchFiles == null || patchFiles.length == 0) {
+            log.error("No patches to pack found");
+            return ExitCodes.USAGE_ERROR;
+        }
+
+        try (Phase ignored = Timings.start("pack")) {
+            PatchBundle.write(Arrays.asList(patchFiles), bundleFile, compress);
+        } catch (IOException e) {
+            log.error("Unable to write the patch bundle {}", bundleFile, e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+
+        long size = Arrays.stream(patchFiles).mapToLong(File::length).sum();
+        log.info("Packed {} patches into {} ({} KB, {} KB unpacked)", patchFiles.length, bundleFile, bundleFile.length() / 1024, size / 1024);
+        return ExitCodes.SUCCESSFUL;
+    }
+
+    /*
+        Writes the patches of a bundle into the patches directory. Patch files which already have
+        the same content are left alone, so the series index does not have to read them again.
+     */
+    public ExitCodes unpackPatches(File bundleFile) {
+        File directory = this.getPatchesSource();
+        if (directory.isFile()) {
+            log.error("Patches cannot be unpacked into {}, it is {} and not a directory", directory, PatchBundle.isBundle(directory) ? "a bundle" : "a file");
+            return ExitCodes.USAGE_ERROR;
+        }
+
+        try (Phase ignored = Timings.start("unpack")) {
+            PatchBundle bundle = PatchBundle.open(bundleFile);
+            Files.createDirectories(directory.toPath());
+
+            int written = 0;
+            for (PatchBundle.Entry entry : bundle.getEntries().values()) {
+                String name = entry.getName();
+                if (name.contains("/") || name.contains("\\") || !name.toLowerCase().endsWith(".patch")) {
+                    log.error("Refusing to unpack {}, it is not a patch file name", name);
+                    return ExitCodes.INTERNAL_ERROR;
+                }
+
+                Path target = directory.toPath().resolve(name);
+                ByteBuffer content = bundle.read(entry);
+                if (Files.isRegularFile(target) && Files.size(target) == entry.getSize() && ByteBuffer.wrap(Files.readAllBytes(target)).equals(content)) {
+                    continue;
+                }
+
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    while (content.hasRemaining()) {
+                        out.write(content);
+                    }
+                }
+                written++;
+            }
+
+            // Leftovers would become part of the series, but they may be work in progress
+            File[] patchFiles = this.listPatchFiles();
+            for (File file : patchFiles == null ? new File[0] : patchFiles) {
+                if (bundle.getEntry(file.getName()) == null) {
+                    log.warn("Patch {} is not part of the bundle, remove it to get the series of the bundle", file.getName());
+                }
+            }
+
+            log.info("Unpacked {} patches into {}, {} of them changed", bundle.getEntries().size(), directory, written);
+            return ExitCodes.SUCCESSFUL;
+        } catch (IOException e) {
+            log.error("Unable to unpack the patch bundle {}", bundleFile, e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+    }
+
+    /*
+        Adds the patches of a mbox, like the output of git format-patch --stdout, to the end of the
+        series. The mbox is read one patch at a time, so its size does not matter. "-" reads the
+        mbox from stdin.
+     */
+    public ExitCodes importMbox(File mboxFile) {
+        File directory = this.getPatchesSource();
+        if (PatchBundle.isBundle(directory)) {
+            log.error("Patches cannot be imported into the bundle {}, unpack it first", directory);
+            return ExitCodes.USAGE_ERROR;
+        }
+
+        int number = 0;
+        File[] patchFiles = this.listPatchFiles();
+        for (File file : patchFiles == null ? new File[0] : patchFiles) {
+            String name = file.getName();
+            int digits = 0;
+            while (digits < name.length() && Character.isDigit(name.charAt(digits))) {
+                digits++;
+            }
+            if (digits > 0 && digits < 10) {
+                number = Math.max(number, Integer.parseInt(name.substring(0, digits)));
+            }
+        }
+
+        boolean stdin = "-".equals(mboxFile.getPath());
+        int imported = 0;
+        try (Phase ignored = Timings.start("import-mbox");
+             MboxReader reader = new MboxReader(stdin ? System.in : new FileInputStream(mboxFile))) {
+            Files.createDirectories(directory.toPath());
+
+            PatchesDiff diff;
+            while ((diff = reader.next()) != null) {
+                String fileName = this.patchFileName(++number, diff.getSubject() == null ? "" : diff.getSubject());
+                diff.setFileName(fileName);
+                if (!this.getDiffService().hasValidHeaders(fileName, diff)) {
+                    log.error("Stopped the import at patch {} of the mbox, {} patches were imported", imported + 1, imported);
+                    return ExitCodes.INTERNAL_ERROR;
+                }
+
+                ExitCodes result = this.getDiffService().writePatch(new File(directory, fileName), diff);
+                if (result != ExitCodes.SUCCESSFUL) {
+                    return result;
+                }
+                log.info("Imported patch {}", fileName);
+                imported++;
+            }
+        } catch (FileNotFoundException e) {
+            log.error("The mbox {} does not exist", mboxFile);
+            return ExitCodes.USAGE_ERROR;
+        } catch (IOException e) {
+            log.error("Unable to read the mbox {} after {} patches", stdin ? "from stdin" : mboxFile, imported, e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+
+        if (imported == 0) {
+            log.warn("The mbox contains no patches");
+        } else {
+            log.info("Imported {} patches into {}", imported, directory);
         }
         return ExitCodes.SUCCESSFUL;
     }
 
+    /*
+        Writes the series into one mbox which git am can apply. The patches are read one after
+        another, from the patches directory or the bundle, and written as soon as they are read.
+        The series index is not used, building it parses every diff.
+     */
+    public ExitCodes exportMbox(File mboxFile) {
+        File source = this.getPatchesSource();
+        try (Phase ignored = Timings.start("export-mbox")) {
+            PatchBundle bundle = PatchBundle.isBundle(source) ? PatchBundle.open(source) : null;
+            List<String> names = new ArrayList<>();
+            if (bundle != null) {
+                names.addAll(bundle.listNames());
+            } else {
+                File[] patchFiles = this.listPatchFiles();
+                for (File file : patchFiles == null ? new File[0] : patchFiles) {
+                    names.add(file.getName());
+                }
+            }
+            if (names.isEmpty()) {
+                log.error("No patches to export found");
+                return ExitCodes.USAGE_ERROR;
+            }
+
+            // Written next to the target and moved over it at the end, like PatchBundle.write()
+            Path temp = mboxFile.toPath().toAbsolutePath().resolveSibling(mboxFile.getName() + ".tmp");
+            boolean complete = false;
+            try (MboxWriter writer = new MboxWriter(Files.newOutputStream(temp))) {
+                for (int i = 0; i < names.size(); i++) {
+                    String name = names.get(i);
+                    PatchesDiff diff = bundle != null
+                            ? this.getDiffService().readPatches(name, bundle.read(bundle.getEntry(name)))
+                            : this.getDiffService().readPatches(new File(source, name));
+                    if (diff == null || !this.getDiffService().hasValidHeaders(name, diff)) {
+                        return ExitCodes.INTERNAL_ERROR;
+                    }
+                    writer.write(diff, i + 1, names.size());
+                }
+                complete = true;
+            } finally {
+                if (!complete) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            Files.move(temp, mboxFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            log.info("Exported {} patches to {}", names.size(), mboxFile);
+            return ExitCodes.SUCCESSFUL;
+        } catch (IOException e) {
+            log.error("Unable to export the patches to {}", mboxFile, e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+    }
+
+    /*
+        Like convertPatch(), for a patch of a bundle. Stored patches are written straight from the
+        mapping of the bundle.
+     */
+    private ExitCodes convertBundledPatch(PatchBundle bundle, PatchBundle.Entry entry, Path outFile) {
+        try (Phase phase = Timings.start("convert", entry.getName())) {
+            PatchesDiff diff = this.getDiffService().parsePatch(bundle.read(entry));
+            if (diff == null) {
+                log.error("Unable to parse patch {}", entry.getName());
+                return ExitCodes.INTERNAL_ERROR;
+            }
+
+            ByteBuffer content = diff.getDiffContent().duplicate();
+            phase.bytes(content.remaining());
+            try (FileChannel out = FileChannel.open(outFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (content.hasRemaining()) {
+                    out.write(content);
+                }
+            }
+
+            log.info("Successfully converted patch {}", entry.getName());
+            return ExitCodes.SUCCESSFUL;
+        } catch (IOException e) {
+            log.error("Unable to convert patch {}", entry.getName(), e);
+            return ExitCodes.OPERATING_SYSTEM_ERROR;
+        }
+    }
+
+    private void stageAppliedPaths(Git git, ApplyResult result) throws GitAPIException {
+        Path workTree = git.getRepository().getWorkTree().toPath();
+        AddCommand add = git.add();
+        RmCommand rm = git.rm().setCached(true);
+        boolean hasAdditions = false;
+        boolean hasRemovals = false;
+
+        // Only the touched paths are staged, so the tree walks below never leave them
+        for (File file : result.getUpdatedFiles()) {
+            String path = workTree.relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+            if (file.exists()) {
+                add.addFilepattern(path);
+                hasAdditions = true;
+            } else {
+                rm.addFilepattern(path);
+                hasRemovals = true;
+            }
+        }
+
+        if (hasAdditions) {
+            add.call();
+        }
+        if (hasRemovals) {
+            rm.call();
+        }
+    }
+
+    private File[] listPatchFiles() {
+        File[] patchFiles = this.getPatchesSource().listFiles((dir, name) -> name.toLowerCase().endsWith(".patch"));
+        if (patchFiles != null) {
+            // listFiles() has no defined order, but the patches build on top of each other
+            Arrays.sort(patchFiles, Comparator.comparing(File::getName));
+        }
+        return patchFiles;
+    }
+
     private AbstractTreeIterator prepareTreeParser(Repository repository, ObjectId objectId) {
         try (RevWalk walk = new RevWalk(repository)) {
             RevCommit commit = walk.parseCommit(objectId);
@@ -277,14 +1355,35 @@ public class GitService {
         return null;
     }
 
-    private String[] splitSubjectAndBody(String rawBody) {
+    /*
+        Runs the status walk unless an earlier step of the same run already left the tree clean
+     */
+    private boolean isClean(Git git) throws GitAPIException, IOException {
+        if (RepositorySession.isKnownClean(git.getRepository())) {
+            log.debug("Skipping the status check, the working tree is known to be clean");
+            return true;
+        }
+
+        try (Phase ignored = Timings.start("status")) {
+            boolean clean = git.status().call().isClean();
+            if (clean) {
+                RepositorySession.markClean(git.getRepository());
+            }
+            return clean;
+        }
+    }
+
+    /*
+        A blank message, e.g. from commit --allow-empty-message, gives an empty subject and body.
+     */
+    String[] splitSubjectAndBody(String rawBody) {
         if (rawBody == null || rawBody.isBlank()) {
-            return null;
+            return new String[]{"", ""};
         }
 
         int idx = rawBody.indexOf('\n');
         if (idx < 0) {
-            return null;
+            return new String[]{rawBody.trim(), ""};
         }
 
         String subject = rawBody.substring(0, idx).trim();
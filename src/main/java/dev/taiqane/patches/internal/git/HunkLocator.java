@@ -0,0 +1,280 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.patch.HunkHeader;
+import org.eclipse.jgit.util.IntList;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Applies the hunks of one file to its pre-image like patch(1) does. Every hunk is first tried
+    at the line its header names, shifted by the offset the previous hunk landed at, then at the
+    nearest position where its old lines match. With a fuzz above zero, up to that many leading
+    and trailing context lines may be ignored if the hunk does not match with all of them.
+
+    Matches are found through the LineIndex of the pre-image, so locating a hunk costs the
+    occurrences of its rarest line instead of a scan of the whole file.
+ */
+final class HunkLocator {
+
+    private HunkLocator() {
+    }
+
+    static Result apply(byte[] preImage, FileHeader fileHeader, int fuzz) {
+        LineIndex index = new LineIndex(preImage);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(preImage.length + 1024);
+        List<Placement> placements = new ArrayList<>();
+
+        int cursor = 0;
+        int offset = 0;
+        // Whether the last line written so far must not end with a newline
+        boolean noFinalNewline = false;
+
+        List<? extends HunkHeader> hunkHeaders = fileHeader.getHunks();
+        for (int number = 1; number <= hunkHeaders.size(); number++) {
+            Hunk hunk = Hunk.parse(hunkHeaders.get(number - 1));
+            // A hunk without old lines inserts after the line its header names instead of at it
+            int headerLine = hunk.getOldCount() == 0 ? hunk.getOldStart() : Math.max(0, hunk.getOldStart() - 1);
+
+            Match match = null;
+            int maxFuzz = Math.min(fuzz, Math.max(hunk.getLeadingContext(), hunk.getTrailingContext()));
+            for (int f = 0; f <= maxFuzz && match == null; f++) {
+                match = locate(index, hunk, Math.min(f, hunk.getLeadingContext()), Math.min(f, hunk.getTrailingContext()), headerLine + offset, cursor);
+                if (match != null) {
+                    match.fuzz = f;
+                }
+            }
+
+            if (match == null) {
+                return Result.failed("Hunk #" + number + " at line " + hunk.getOldStart() + " does not match");
+            }
+
+            if (match.position > cursor) {
+                index.writeLines(out, cursor, match.position);
+                noFinalNewline = false;
+            }
+            List<byte[]> newLines = hunk.newLines(match.trimTop, match.trimBottom);
+            for (byte[] line : newLines) {
+                out.write(line, 0, line.length);
+                out.write('\n');
+            }
+            if (!newLines.isEmpty()) {
+                noFinalNewline = match.trimBottom == 0 && hunk.isNewNoNewline();
+            }
+
+            cursor = match.position + hunk.oldLines(match.trimTop, match.trimBottom).size();
+            offset = match.position - headerLine - match.trimTop;
+            placements.add(new Placement(number, match.position + 1 - match.trimTop, offset, match.fuzz));
+        }
+
+        if (cursor < index.size()) {
+            index.writeLines(out, cursor, index.size());
+            noFinalNewline = !index.hasFinalNewline();
+        }
+
+        byte[] result = out.toByteArray();
+        if (noFinalNewline && result.length > 0) {
+            result = Arrays.copyOf(result, result.length - 1);
+        }
+        return new Result(result, placements, null);
+    }
+
+    /*
+        Finds the position nearest to expected, at or after min, where the old lines of the hunk
+        without the trimmed context match.
+     */
+    private static Match locate(LineIndex index, Hunk hunk, int trimTop, int trimBottom, int expected, int min) {
+        List<byte[]> oldLines = hunk.oldLines(trimTop, trimBottom);
+        int[] hashes = new int[oldLines.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = LineIndex.hash(oldLines.get(i), 0, oldLines.get(i).length);
+        }
+
+        int max = index.size() - oldLines.size();
+        expected += trimTop;
+        if (max < min) {
+            return null;
+        }
+
+        // A hunk without old lines, like one creating a file, goes where its header says
+        if (oldLines.isEmpty()) {
+            return new Match(Math.max(min, Math.min(expected, max)), trimTop, trimBottom);
+        }
+
+        if (expected >= min && expected <= max && matches(index, hunk, oldLines, hashes, expected, trimBottom)) {
+            return new Match(expected, trimTop, trimBottom);
+        }
+
+        int anchor = -1;
+        IntList anchorPositions = null;
+        for (int i = 0; i < hashes.length; i++) {
+            IntList positions = index.occurrences(hashes[i]);
+            if (positions == null) {
+                return null;
+            }
+            if (anchorPositions == null || positions.size() < anchorPositions.size()) {
+                anchorPositions = positions;
+                anchor = i;
+            }
+        }
+
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < anchorPositions.size(); i++) {
+            int position = anchorPositions.get(i) - anchor;
+            int distance = Math.abs(position - expected);
+            if (position < min || position > max || distance >= bestDistance) {
+                continue;
+            }
+            if (matches(index, hunk, oldLines, hashes, position, trimBottom)) {
+                best = position;
+                bestDistance = distance;
+            }
+        }
+        return best < 0 ? null : new Match(best, trimTop, trimBottom);
+    }
+
+    private static boolean matches(LineIndex index, Hunk hunk, List<byte[]> oldLines, int[] hashes, int position, int trimBottom) {
+        for (int i = 0; i < oldLines.size(); i++) {
+            if (!index.lineEquals(position + i, hashes[i], oldLines.get(i))) {
+                return false;
+            }
+        }
+
+        // A missing newline at the end of the old lines only matches the end of a file without one
+        boolean atEnd = position + oldLines.size() == index.size();
+        if (trimBottom == 0 && hunk.isOldNoNewline()) {
+            return atEnd && !index.hasFinalNewline();
+        }
+        return !atEnd || index.hasFinalNewline() || trimBottom > 0;
+    }
+
+    private static final class Match {
+        private final int position;
+        private final int trimTop;
+        private final int trimBottom;
+        private int fuzz;
+
+        private Match(int position, int trimTop, int trimBottom) {
+            this.position = position;
+            this.trimTop = trimTop;
+            this.trimBottom = trimBottom;
+        }
+    }
+
+    /*
+        The lines of a hunk without their prefix. Types are ' ', '-' and '+'.
+     */
+    @Getter
+    private static final class Hunk {
+        private final int oldStart;
+        private final int oldCount;
+        private final List<byte[]> lines = new ArrayList<>();
+        private final List<Byte> types = new ArrayList<>();
+        private boolean oldNoNewline;
+        private boolean newNoNewline;
+        private int leadingContext;
+        private int trailingContext;
+
+        private Hunk(int oldStart, int oldCount) {
+            this.oldStart = oldStart;
+            this.oldCount = oldCount;
+        }
+
+        static Hunk parse(HunkHeader header) {
+            Hunk hunk = new Hunk(header.getOldImage().getStartLine(), header.getOldImage().getLineCount());
+            byte[] buffer = header.getBuffer();
+            int end = header.getEndOffset();
+            int oldRemaining = header.getOldImage().getLineCount();
+            int newRemaining = header.getNewLineCount();
+
+            // Skip the @@ line
+            int pos = header.getStartOffset();
+            while (pos < end && buffer[pos] != '\n') {
+                pos++;
+            }
+            pos++;
+
+            while (pos < end) {
+                int eol = pos;
+                while (eol < end && buffer[eol] != '\n') {
+                    eol++;
+                }
+                byte type = eol > pos ? buffer[pos] : (byte) ' ';
+
+                if (type == '\\') {
+                    byte previous = hunk.types.isEmpty() ? 0 : hunk.types.getLast();
+                    hunk.oldNoNewline |= previous == ' ' || previous == '-';
+                    hunk.newNoNewline |= previous == ' ' || previous == '+';
+                } else if ((type == ' ' || type == '-' || type == '+') && (oldRemaining > 0 || newRemaining > 0)) {
+                    hunk.types.add(type);
+                    hunk.lines.add(Arrays.copyOfRange(buffer, Math.min(pos + 1, eol), eol));
+                    oldRemaining -= type == '+' ? 0 : 1;
+                    newRemaining -= type == '-' ? 0 : 1;
+                } else {
+                    break;
+                }
+                pos = eol + 1;
+            }
+
+            while (hunk.leadingContext < hunk.types.size() && hunk.types.get(hunk.leadingContext) == ' ') {
+                hunk.leadingContext++;
+            }
+            while (hunk.trailingContext < hunk.types.size() && hunk.types.get(hunk.types.size() - 1 - hunk.trailingContext) == ' ') {
+                hunk.trailingContext++;
+            }
+            return hunk;
+        }
+
+        List<byte[]> oldLines(int trimTop, int trimBottom) {
+            return this.linesWithout('+', trimTop, trimBottom);
+        }
+
+        List<byte[]> newLines(int trimTop, int trimBottom) {
+            return this.linesWithout('-', trimTop, trimBottom);
+        }
+
+        private List<byte[]> linesWithout(char excluded, int trimTop, int trimBottom) {
+            List<byte[]> result = new ArrayList<>();
+            for (int i = trimTop; i < this.lines.size() - trimBottom; i++) {
+                if (this.types.get(i) != excluded) {
+                    result.add(this.lines.get(i));
+                }
+            }
+            return result;
+        }
+    }
+
+    /*
+        Where a hunk landed: the 1-based line, the offset against its header and the fuzz it needed.
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class Placement {
+        private final int hunk;
+        private final int line;
+        private final int offset;
+        private final int fuzz;
+    }
+
+    /*
+        Either the new content and the placements of all hunks, or the error of the first hunk
+        which did not apply.
+     */
+    @Getter
+    @AllArgsConstructor
+    static final class Result {
+        private final byte[] content;
+        private final List<Placement> placements;
+        private final String error;
+
+        static Result failed(String error) {
+            return new Result(null, List.of(), error);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.internal.metrics.Phase;
+import dev.taiqane.patches.internal.metrics.Timings;
+import lombok.Getter;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.PatchApplyException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.IOException;
+import java.util.Map;
+
+/*
+    Applies patches against the tree of the previous commit without touching the working tree.
+    Blobs, trees and commits are written straight into the object database and the working tree
+    is only updated once by checkout() after the whole series has been applied.
+ */
+@Getter
+public class InMemoryApplier implements AutoCloseable {
+    private final Repository repository;
+    private final ObjectInserter inserter;
+    private final RevWalk walk;
+    private final FuzzyApplier fuzzyApplier;
+
+    public InMemoryApplier(Repository repository, ApplyOptions options) {
+        this.repository = repository;
+        this.inserter = repository.newObjectInserter();
+        this.walk = new RevWalk(this.inserter.newReader());
+        this.fuzzyApplier = new FuzzyApplier(repository, options.getFuzz(), options.isStrict());
+    }
+
+    public ObjectId applyPatch(ObjectId parentCommitId, PatchesDiff diff) throws IOException, GitAPIException {
+        RevCommit parent = this.getWalk().parseCommit(parentCommitId);
+
+        FuzzyApplier.Result result;
+        try (Phase phase = Timings.start("apply", diff.getFileName()).bytes(diff.getDiffLength())) {
+            result = this.getFuzzyApplier().apply(this.getWalk().getObjectReader(), this.getInserter(), parent.getTree(), diff);
+            phase.touchedPaths(result.getChanges().size());
+        }
+
+        // Failed hunks are reported instead of thrown, the tree is left out then
+        if (!result.getErrors().isEmpty()) {
+            throw new PatchApplyException("Cannot apply: " + result.getErrors());
+        }
+
+        return this.insertCommit(parent, result.getTreeId(), diff);
+    }
+
+    /*
+        Commits the already applied changes of a patch, see ParallelApplier. Only the trees on the
+        way to the changed paths are written.
+     */
+    public ObjectId commitChanges(ObjectId parentCommitId, PatchesDiff diff, Map<String, TreeUpdater.Change> changes) throws IOException {
+        RevCommit parent = this.getWalk().parseCommit(parentCommitId);
+        ObjectId treeId;
+        try (Phase ignored = Timings.start("tree", diff.getFileName())) {
+            treeId = TreeUpdater.update(this.getWalk().getObjectReader(), this.getInserter(), parent.getTree(), changes);
+        }
+        return this.insertCommit(parent, treeId, diff);
+    }
+
+    private ObjectId insertCommit(RevCommit parent, ObjectId treeId, PatchesDiff diff) throws IOException {
+        PersonIdent author = new PersonIdent(diff.getAuthorName(), diff.getAuthorEmail(), diff.getAuthorDate().toInstant(), diff.getAuthorDate().getZone());
+
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(treeId);
+        commit.setParentId(parent);
+        commit.setAuthor(author);
+        commit.setCommitter(author);
+        commit.setMessage(diff.getSubject() + "\n\n" + diff.getBody());
+
+        try (Phase ignored = Timings.start("commit", diff.getFileName())) {
+            return this.getInserter().insert(commit);
+        }
+    }
+
+    public void checkout(ObjectId oldCommitId, ObjectId newCommitId) throws IOException {
+        try (Phase ignored = Timings.start("checkout")) {
+            this.getInserter().flush();
+            RepositoryUtil.moveHead(this.getRepository(), oldCommitId, newCommitId, "patches: apply series");
+        }
+    }
+
+    @Override
+    public void close() {
+        this.getWalk().close();
+        this.getInserter().close();
+    }
+}
@@ -0,0 +1,94 @@
+package dev.taiqane.patches.internal.git;
+
+import org.eclipse.jgit.util.IntList;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    The lines of a pre-image file together with a hash of every line and the positions each hash
+    occurs at. It is built once per file in a single pass, after that a hunk is located by looking
+    up its rarest line instead of comparing it against every position of the file.
+ */
+final class LineIndex {
+    private final byte[] content;
+    private final IntList starts = new IntList();
+    private final IntList ends = new IntList();
+    private final int[] hashes;
+    private final Map<Integer, IntList> positions = new HashMap<>();
+    private final boolean finalNewline;
+
+    LineIndex(byte[] content) {
+        this.content = content;
+
+        int pos = 0;
+        while (pos < content.length) {
+            int eol = pos;
+            while (eol < content.length && content[eol] != '\n') {
+                eol++;
+            }
+            this.starts.add(pos);
+            this.ends.add(eol);
+            pos = eol + 1;
+        }
+        this.finalNewline = content.length == 0 || content[content.length - 1] == '\n';
+
+        this.hashes = new int[this.starts.size()];
+        for (int i = 0; i < this.hashes.length; i++) {
+            this.hashes[i] = hash(content, this.starts.get(i), this.ends.get(i));
+            this.positions.computeIfAbsent(this.hashes[i], h -> new IntList()).add(i);
+        }
+    }
+
+    static int hash(byte[] data, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+
+    int size() {
+        return this.hashes.length;
+    }
+
+    boolean hasFinalNewline() {
+        return this.finalNewline;
+    }
+
+    /*
+        Line numbers in ascending order, or null if no line has the hash.
+     */
+    IntList occurrences(int hash) {
+        return this.positions.get(hash);
+    }
+
+    boolean lineEquals(int line, int hash, byte[] other) {
+        if (this.hashes[line] != hash) {
+            return false;
+        }
+        int start = this.starts.get(line);
+        int length = this.ends.get(line) - start;
+        if (length != other.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (this.content[start + i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+        Writes the lines from..to (exclusive), each followed by a newline.
+     */
+    void writeLines(ByteArrayOutputStream out, int from, int to) {
+        for (int line = from; line < to; line++) {
+            int start = this.starts.get(line);
+            out.write(this.content, start, this.ends.get(line) - start);
+            out.write('\n');
+        }
+    }
+}
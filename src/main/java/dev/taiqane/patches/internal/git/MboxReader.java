@@ -0,0 +1,392 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    Reads a mbox as written by git format-patch --stdout one message at a time, so a series of
+    any size is read in the memory of its largest patch. Every message becomes a PatchesDiff:
+    the mail headers give author, date and subject, the text up to the "---" line the body, and
+    everything from the first "diff --git" line up to the signature the diff. The diffstat in
+    between is dropped.
+
+    Diffs above SPILL_THRESHOLD are written to a temporary file and mapped, so they never land in
+    the heap at all. Messages without a diff, like the cover letter, are skipped.
+ */
+@Slf4j
+@Getter
+public class MboxReader implements AutoCloseable {
+    private static final Pattern SEPARATOR = Pattern.compile("^From [0-9a-f]{40,64} .*");
+    private static final Pattern PATCH_PREFIX = Pattern.compile("^\\s*\\[[^]]*PATCH[^]]*]\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ENCODED_WORD = Pattern.compile("=\\?([^?]+)\\?([bBqQ])\\?([^?]*)\\?=");
+    private static final byte[] DIFF_START = "diff --git ".getBytes(StandardCharsets.US_ASCII);
+    private static final int SPILL_THRESHOLD = 1024 * 1024;
+    // A signature is "-- ", a version line and a blank line
+    private static final int MAX_SIGNATURE_LINES = 4;
+
+    private final InputStream in;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean pendingSeparator;
+    private boolean eof;
+    private int messages;
+
+    public MboxReader(InputStream in) {
+        this.in = new BufferedInputStream(in, 64 * 1024);
+    }
+
+    /*
+        Returns the next patch of the mbox, or null at its end.
+     */
+    public PatchesDiff next() throws IOException {
+        while (true) {
+            // Anything before the first separator, like a preamble, is not part of a message
+            while (!this.pendingSeparator) {
+                if (!this.readLine()) {
+                    return null;
+                }
+                this.pendingSeparator = this.isSeparator();
+            }
+            this.pendingSeparator = false;
+            this.messages++;
+
+            PatchesDiff diff = this.readMessage();
+            if (diff != null) {
+                return diff;
+            }
+        }
+    }
+
+    private PatchesDiff readMessage() throws IOException {
+        Map<String, String> headers = this.readHeaders();
+        String encoding = headers.getOrDefault("content-transfer-encoding", "8bit").trim().toLowerCase(Locale.ROOT);
+        if (!encoding.equals("7bit") && !encoding.equals("8bit")) {
+            throw new IOException("Message " + this.getMessages() + " uses the unsupported transfer encoding " + encoding);
+        }
+
+        StringBuilder body = new StringBuilder();
+        boolean inBodyHeaders = true;
+        boolean inDiffstat = false;
+        boolean hasDiff = false;
+
+        while (this.readLine()) {
+            if (this.isSeparator()) {
+                this.pendingSeparator = true;
+                break;
+            }
+            if (this.startsWith(DIFF_START)) {
+                hasDiff = true;
+                break;
+            }
+            if (inDiffstat) {
+                continue;
+            }
+
+            String text = this.lineText();
+            // git send-email puts the author of someone else's patch in front of the body
+            if (inBodyHeaders && body.isEmpty() && isInBodyHeader(text)) {
+                headers.put(text.substring(0, text.indexOf(':')).toLowerCase(Locale.ROOT), text.substring(text.indexOf(':') + 1).trim());
+                continue;
+            }
+            inBodyHeaders = false;
+
+            if (text.stripTrailing().equals("---")) {
+                inDiffstat = true;
+                continue;
+            }
+            body.append(text).append('\n');
+        }
+
+        String subject = decodeHeader(headers.getOrDefault("subject", ""));
+        if (!hasDiff) {
+            log.info("Skipping message {} without a diff: {}", this.getMessages(), subject);
+            return null;
+        }
+
+        PatchesDiff diff = new PatchesDiff();
+        diff.setSubject(PATCH_PREFIX.matcher(subject).replaceFirst("").strip());
+        diff.setBody(body.toString().strip());
+        this.parseFrom(decodeHeader(headers.getOrDefault("from", "")), diff);
+        try {
+            diff.setAuthorDate(ZonedDateTime.parse(headers.getOrDefault("date", "").trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+        } catch (DateTimeParseException e) {
+            log.error("Message {} has no valid Date header", this.getMessages());
+        }
+        diff.setDiffContent(this.readDiff());
+        return diff;
+    }
+
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        String current = null;
+        while (this.readLine()) {
+            String text = this.lineText();
+            if (text.isBlank()) {
+                break;
+            }
+            // Folded lines continue the previous header
+            if ((text.startsWith(" ") || text.startsWith("\t")) && current != null) {
+                headers.put(current, headers.get(current) + text);
+                continue;
+            }
+            int colon = text.indexOf(':');
+            if (colon > 0) {
+                current = text.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                headers.put(current, text.substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static boolean isInBodyHeader(String text) {
+        return text.startsWith("From: ") || text.startsWith("Date: ") || text.startsWith("Subject: ");
+    }
+
+    private void parseFrom(String from, PatchesDiff diff) {
+        int mailStart = from.lastIndexOf('<');
+        int mailEnd = from.indexOf('>', mailStart + 1);
+        if (mailStart < 0 || mailEnd < 0) {
+            diff.setAuthorEmail(from.trim().isEmpty() ? null : from.trim());
+            diff.setAuthorName(diff.getAuthorEmail());
+            return;
+        }
+
+        String name = from.substring(0, mailStart).trim();
+        if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+            name = name.substring(1, name.length() - 1).replace("\\\"", "\"");
+        }
+        diff.setAuthorEmail(from.substring(mailStart + 1, mailEnd).trim());
+        diff.setAuthorName(name.isEmpty() ? diff.getAuthorEmail() : name);
+    }
+
+    /*
+        Copies the diff up to the next message. A trailing signature and blank lines are held back
+        until it is clear that no diff line follows them, a removed "- " line looks like "-- " too.
+     */
+    private ByteBuffer readDiff() throws IOException {
+        SpillBuffer out = new SpillBuffer();
+        List<byte[]> held = new ArrayList<>();
+        boolean inSignature = false;
+
+        // The current line is the first "diff --git" line
+        out.writeLine(this.line, this.lineLength);
+        while (this.readLine()) {
+            if (this.isSeparator()) {
+                this.pendingSeparator = true;
+                break;
+            }
+
+            boolean signatureStart = this.lineLength == 3 && this.line[0] == '-' && this.line[1] == '-' && this.line[2] == ' ';
+            boolean trailer;
+            if (inSignature) {
+                trailer = held.size() < MAX_SIGNATURE_LINES && !this.isDiffLine();
+            } else {
+                trailer = signatureStart || this.lineLength == 0;
+            }
+
+            if (trailer) {
+                inSignature |= signatureStart;
+                held.add(Arrays.copyOf(this.line, this.lineLength));
+                continue;
+            }
+
+            for (byte[] heldLine : held) {
+                out.writeLine(heldLine, heldLine.length);
+            }
+            held.clear();
+            if (inSignature && signatureStart) {
+                held.add(Arrays.copyOf(this.line, this.lineLength));
+            } else {
+                inSignature = false;
+                out.writeLine(this.line, this.lineLength);
+            }
+        }
+        return out.finish();
+    }
+
+    private boolean isDiffLine() {
+        if (this.lineLength == 0) {
+            return false;
+        }
+        byte first = this.line[0];
+        return first == ' ' || first == '+' || first == '-' || first == '@' || first == '\\' || this.startsWith(DIFF_START);
+    }
+
+    /*
+        Reads the next line without its newline. Returns false at the end of the input.
+     */
+    private boolean readLine() throws IOException {
+        if (this.eof) {
+            return false;
+        }
+
+        this.lineLength = 0;
+        int b;
+        while ((b = this.in.read()) >= 0 && b != '\n') {
+            if (this.lineLength == this.line.length) {
+                this.line = Arrays.copyOf(this.line, this.line.length * 2);
+            }
+            this.line[this.lineLength++] = (byte) b;
+        }
+        if (b < 0) {
+            this.eof = true;
+            return this.lineLength > 0;
+        }
+        return true;
+    }
+
+    private boolean isSeparator() {
+        return this.startsWith("From ".getBytes(StandardCharsets.US_ASCII)) && SEPARATOR.matcher(this.lineText()).matches();
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (this.lineLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (this.line[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String lineText() {
+        int length = this.lineLength > 0 && this.line[this.lineLength - 1] == '\r' ? this.lineLength - 1 : this.lineLength;
+        return new String(this.line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /*
+        Decodes RFC 2047 encoded words like =?UTF-8?q?F=C3=BCr?=. The bytes of adjacent words are
+        joined before decoding, as a character may be split between them, and the whitespace
+        between them is dropped. Escapes and base64 text which cannot be decoded are kept as they are.
+     */
+    static String decodeHeader(String value) {
+        Matcher matcher = ENCODED_WORD.matcher(value);
+        StringBuilder result = new StringBuilder();
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        Charset pendingCharset = null;
+        int end = 0;
+
+        while (matcher.find()) {
+            String between = value.substring(end, matcher.start());
+            Charset charset;
+            try {
+                charset = Charset.forName(matcher.group(1).replaceAll("\\*.*$", ""));
+            } catch (IllegalArgumentException e) {
+                charset = StandardCharsets.UTF_8;
+            }
+
+            boolean adjacent = pendingCharset != null && between.isBlank();
+            if (!adjacent || !charset.equals(pendingCharset)) {
+                if (pendingCharset != null) {
+                    result.append(pending.toString(pendingCharset));
+                    pending.reset();
+                }
+                if (!adjacent) {
+                    result.append(between);
+                }
+            }
+            pendingCharset = charset;
+
+            String text = matcher.group(3);
+            if (matcher.group(2).equalsIgnoreCase("b")) {
+                try {
+                    pending.writeBytes(Base64.getMimeDecoder().decode(text));
+                } catch (IllegalArgumentException e) {
+                    pending.writeBytes(matcher.group().getBytes(StandardCharsets.US_ASCII));
+                }
+            } else {
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    if (c == '_') {
+                        pending.write(' ');
+                    } else if (c == '=' && i + 2 < text.length() && Character.digit(text.charAt(i + 1), 16) >= 0 && Character.digit(text.charAt(i + 2), 16) >= 0) {
+                        pending.write(Character.digit(text.charAt(i + 1), 16) << 4 | Character.digit(text.charAt(i + 2), 16));
+                        i += 2;
+                    } else {
+                        pending.write(c);
+                    }
+                }
+            }
+            end = matcher.end();
+        }
+
+        if (pendingCharset != null) {
+            result.append(pending.toString(pendingCharset));
+        }
+        return result.append(value.substring(end)).toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.getIn().close();
+    }
+
+    /*
+        Collects a diff in the heap and moves it to a temporary file once it gets large. The file
+        is mapped and deleted right away, the mapping keeps the content readable.
+     */
+    private static final class SpillBuffer {
+        private final ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream fileOut;
+
+        void writeLine(byte[] data, int length) throws IOException {
+            OutputStream out = this.fileOut != null ? this.fileOut : this.heap;
+            out.write(data, 0, length);
+            out.write('\n');
+
+            if (this.fileOut == null && this.heap.size() > SPILL_THRESHOLD) {
+                this.file = Files.createTempFile("patches-mbox-", ".diff");
+                this.fileOut = new BufferedOutputStream(Files.newOutputStream(this.file), 64 * 1024);
+                this.heap.writeTo(this.fileOut);
+                this.heap.reset();
+            }
+        }
+
+        ByteBuffer finish() throws IOException {
+            if (this.fileOut == null) {
+                return ByteBuffer.wrap(this.heap.toByteArray()).asReadOnlyBuffer();
+            }
+
+            this.fileOut.close();
+            ByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            try {
+                Files.delete(this.file);
+            } catch (IOException e) {
+                this.file.toFile().deleteOnExit();
+            }
+            return mapped;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.Getter;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+
+/*
+    Writes patches as a mbox in the layout of git format-patch --stdout, so git am and the
+    MboxReader can read it. Every patch is written as soon as it is handed over and its diff goes
+    from its buffer straight to the stream. Patches have no commit, so the separator line carries
+    the zero id like format-patch does for patches without one.
+ */
+@Getter
+public class MboxWriter implements AutoCloseable {
+    private static final String SEPARATOR = "From " + ObjectId.zeroId().name() + " Mon Sep 17 00:00:00 2001\n";
+    private static final String SIGNATURE = "-- \npatches\n\n";
+    // Encoded words may be 75 characters long, the charset and markers take 12 of them
+    private static final int MAX_ENCODED_TEXT = 60;
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+
+    public MboxWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+        this.channel = Channels.newChannel(this.out);
+    }
+
+    /*
+        Number and total give the [PATCH n/m] prefix, a series of one patch gets [PATCH].
+     */
+    public void write(PatchesDiff diff, int number, int total) throws IOException {
+        StringBuilder header = new StringBuilder(512);
+        header.append(SEPARATOR);
+        header.append("From: ").append(encodeHeader(diff.getAuthorName())).append(" <").append(diff.getAuthorEmail()).append(">\n");
+        header.append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(diff.getAuthorDate())).append('\n');
+        String prefix = total > 1 ? "[PATCH " + number + "/" + total + "] " : "[PATCH] ";
+        header.append("Subject: ").append(prefix).append(encodeHeader(diff.getSubject().strip())).append('\n');
+        header.append("MIME-Version: 1.0\n");
+        header.append("Content-Type: text/plain; charset=UTF-8\n");
+        header.append("Content-Transfer-Encoding: 8bit\n");
+        header.append('\n');
+
+        String body = diff.getBody() == null ? "" : diff.getBody().strip();
+        if (!body.isEmpty()) {
+            header.append(body).append('\n');
+        }
+        header.append("---\n\n");
+        this.getOut().write(header.toString().getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer content = diff.getDiffContent().duplicate();
+        boolean endsWithNewline = content.hasRemaining() && content.get(content.limit() - 1) == '\n';
+        while (content.hasRemaining()) {
+            this.getChannel().write(content);
+        }
+        if (!endsWithNewline) {
+            this.getOut().write('\n');
+        }
+        this.getOut().write(SIGNATURE.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /*
+        Header values with non-ASCII characters become RFC 2047 encoded words. Long values are
+        split between characters and folded onto continuation lines.
+     */
+    static String encodeHeader(String value) {
+        if (value.chars().allMatch(c -> c >= 0x20 && c < 0x7f)) {
+            return value;
+        }
+
+        StringBuilder result = new StringBuilder();
+        StringBuilder word = new StringBuilder();
+        int i = 0;
+        while (i < value.length()) {
+            int codePoint = value.codePointAt(i);
+            String encoded = encodeCodePoint(codePoint);
+            if (word.length() + encoded.length() > MAX_ENCODED_TEXT) {
+                appendWord(result, word);
+                word.setLength(0);
+            }
+            word.append(encoded);
+            i += Character.charCount(codePoint);
+        }
+        appendWord(result, word);
+        return result.toString();
+    }
+
+    private static void appendWord(StringBuilder result, StringBuilder word) {
+        if (!result.isEmpty()) {
+            result.append("\n ");
+        }
+        result.append("=?UTF-8?q?").append(word).append("?=");
+    }
+
+    private static String encodeCodePoint(int codePoint) {
+        if (codePoint == ' ') {
+            return "_";
+        }
+        if (codePoint > 0x20 && codePoint < 0x7f && codePoint != '=' && codePoint != '?' && codePoint != '_') {
+            return String.valueOf((char) codePoint);
+        }
+
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8)) {
+            encoded.append('=').append(String.format("%02X", b & 0xff));
+        }
+        return encoded.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.getOut().close();
+    }
+}
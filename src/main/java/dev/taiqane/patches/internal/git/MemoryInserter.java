@@ -0,0 +1,134 @@
+package dev.taiqane.patches.internal.git;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PackParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Inserter that keeps the objects it is given in memory. Its readers see these objects first
+    and fall back to the repository, so a row of patches can be applied on top of each other
+    without a single object reaching the object database. Nothing is left behind on close(),
+    unless persist() handed the objects to the repository for code which only reads from there.
+ */
+class MemoryInserter extends ObjectInserter {
+    private final Repository repository;
+    private final Map<ObjectId, ObjectLoader> objects = new ConcurrentHashMap<>();
+
+    MemoryInserter(Repository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public ObjectId insert(int type, long length, InputStream in) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Object of " + length + " bytes is too large to be kept in memory");
+        }
+
+        byte[] data = in.readNBytes((int) length);
+        if (data.length != length) {
+            throw new IOException("Expected " + length + " bytes but the stream ended after " + data.length);
+        }
+
+        ObjectId id = this.idFor(type, data);
+        this.objects.putIfAbsent(id, new ObjectLoader.SmallObject(type, data));
+        return id;
+    }
+
+    @Override
+    public PackParser newPackParser(InputStream in) {
+        throw new UnsupportedOperationException("Packs cannot be inserted in memory");
+    }
+
+    @Override
+    public ObjectReader newReader() {
+        return new Reader(this.repository.newObjectReader());
+    }
+
+    @Override
+    public void flush() {
+        // Everything stays in memory
+    }
+
+    @Override
+    public void close() {
+        this.objects.clear();
+    }
+
+    /*
+        Writes the objects kept so far to the object database. Readers find them there afterwards.
+     */
+    void persist() throws IOException {
+        if (this.objects.isEmpty()) {
+            return;
+        }
+
+        try (ObjectInserter inserter = this.repository.newObjectInserter()) {
+            for (ObjectLoader loader : this.objects.values()) {
+                inserter.insert(loader.getType(), loader.getCachedBytes());
+            }
+            inserter.flush();
+        }
+        this.objects.clear();
+    }
+
+    private class Reader extends ObjectReader {
+        private final ObjectReader delegate;
+
+        private Reader(ObjectReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ObjectReader newReader() {
+            return new Reader(this.delegate.newReader());
+        }
+
+        @Override
+        public Collection<ObjectId> resolve(AbbreviatedObjectId id) throws IOException {
+            Set<ObjectId> matches = new HashSet<>(this.delegate.resolve(id));
+            for (ObjectId objectId : objects.keySet()) {
+                if (id.prefixCompare(objectId) == 0) {
+                    matches.add(objectId);
+                }
+            }
+            return matches;
+        }
+
+        @Override
+        public ObjectLoader open(AnyObjectId objectId, int typeHint) throws MissingObjectException, IncorrectObjectTypeException, IOException {
+            ObjectLoader loader = objects.get(objectId);
+            if (loader == null) {
+                return this.delegate.open(objectId, typeHint);
+            }
+            if (typeHint != OBJ_ANY && loader.getType() != typeHint) {
+                throw new IncorrectObjectTypeException(objectId.copy(), typeHint);
+            }
+            return loader;
+        }
+
+        @Override
+        public Set<ObjectId> getShallowCommits() throws IOException {
+            return this.delegate.getShallowCommits();
+        }
+
+        @Override
+        public void close() {
+            this.delegate.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.metrics.Phase;
+import dev.taiqane.patches.internal.metrics.Timings;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.URIish;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/*
+    Keeps a bare mirror of the base repository in a user level cache directory, keyed by the
+    hash of its URL. Work directories borrow the objects of the mirror through git alternates,
+    so creating or resetting one only transfers refs and whatever the mirror has not seen yet.
+ */
+@Slf4j
+@Getter
+@RequiredArgsConstructor
+public class MirrorService {
+    private static final String ALTERNATES_FILE = "objects/info/alternates";
+
+    private final PatchesConfiguration configuration;
+
+    public File getMirrorDirectory() {
+        return new File(this.getCacheRoot(), hashUrl(this.getConfiguration().getBaseRepoUrl()) + ".git");
+    }
+
+    /*
+        Creates the mirror on first use and fetches new objects from the base repository afterwards.
+        A lock file keeps concurrent runs of different projects from updating the same mirror.
+     */
+    public void updateMirror() throws IOException, GitAPIException {
+        File mirror = this.getMirrorDirectory();
+        Files.createDirectories(this.getCacheRoot().toPath());
+        Path lockFile = this.getCacheRoot().toPath().resolve(mirror.getName() + ".lock");
+
+        try (Phase ignoredPhase = Timings.start("mirror");
+             FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+
+            if (new File(mirror, "objects").isDirectory()) {
+                log.info("Updating the mirror of {}", this.getConfiguration().getBaseRepoUrl());
+                try (Git git = RepositorySession.open(mirror)) {
+                    git.fetch()
+                            .setRemote("origin")
+                            .setRemoveDeletedRefs(true)
+                            .setTagOpt(TagOpt.FETCH_TAGS)
+                            .call();
+                }
+            } else {
+                log.info("Creating a mirror of {} in {}", this.getConfiguration().getBaseRepoUrl(), mirror);
+                try (Git ignoredGit = Git.cloneRepository()
+                        .setURI(this.getConfiguration().getBaseRepoUrl())
+                        .setDirectory(mirror)
+                        .setBare(true)
+                        .setMirror(true)
+                        .call()) {
+                    log.debug("Mirror created");
+                }
+            }
+        }
+    }
+
+    /*
+        Creates an empty repository in workDir that uses the objects of the mirror and points its
+        origin remote to the base repository, then fetches the given refs from the mirror.
+     */
+    public Git createWorkDirectory(File workDir, List<RefSpec> refSpecs) throws IOException, GitAPIException, URISyntaxException {
+        Git git = Git.init().setDirectory(workDir).call();
+        try {
+            Path alternates = git.getRepository().getDirectory().toPath().resolve(ALTERNATES_FILE);
+            Files.createDirectories(alternates.getParent());
+            Files.writeString(alternates, new File(this.getMirrorDirectory(), "objects").getAbsolutePath() + "\n", StandardCharsets.UTF_8);
+
+            git.remoteAdd()
+                    .setName("origin")
+                    .setUri(new URIish(this.getConfiguration().getBaseRepoUrl()))
+                    .call();
+
+            this.fetchFromMirror(git, refSpecs);
+            return git;
+        } catch (IOException | GitAPIException | URISyntaxException | RuntimeException e) {
+            git.close();
+            throw e;
+        }
+    }
+
+    public void fetchFromMirror(Git git, List<RefSpec> refSpecs) throws GitAPIException {
+        // All objects are already reachable through the alternates, so this only updates refs
+        git.fetch()
+                .setRemote(this.getMirrorDirectory().getAbsolutePath())
+                .setRefSpecs(refSpecs)
+                .setTagOpt(TagOpt.NO_TAGS)
+                .call();
+    }
+
+    private File getCacheRoot() {
+        String configured = this.getConfiguration().getMirrorCacheDirectory();
+        if (configured != null && !configured.isBlank()) {
+            return new File(configured);
+        }
+
+        String xdgCache = System.getenv("XDG_CACHE_HOME");
+        File cacheHome = xdgCache != null && !xdgCache.isBlank() ? new File(xdgCache) : new File(System.getProperty("user.home"), ".cache");
+        return new File(cacheHome, "patches/mirrors");
+    }
+
+    private static String hashUrl(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(url.getBytes(StandardCharsets.UTF_8)), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.internal.metrics.Phase;
+import dev.taiqane.patches.internal.metrics.Timings;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.errors.PatchApplyException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Applies the hunks of a patch series on a worker pool. Patches are grouped by the paths they
+    touch and every group is applied in series order on its own, starting from the base tree, as
+    no other group can change what its patches see. Each patch results in the new content of its
+    paths, and await() hands these out in series order, so the commits can still be chained one
+    after the other and end up with the same trees as a sequential apply.
+
+    PatchApplier, used for binary and strict patches, looks up the trees it is given in the
+    repository itself, so the intermediate trees of a group are written to the object database
+    like the new blobs. They are not referenced by any commit and git gc prunes them.
+ */
+@Slf4j
+@Getter
+public class ParallelApplier implements AutoCloseable {
+    private final DiffService diffService;
+    private final Repository repository;
+    private final SeriesIndex index;
+    private final List<SeriesIndex.Entry> entries;
+    private final ExecutorService executor;
+    private final FuzzyApplier fuzzyApplier;
+    private final List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+
+    public ParallelApplier(DiffService diffService, Repository repository, SeriesIndex index, List<SeriesIndex.Entry> entries, ApplyOptions options) {
+        this.diffService = diffService;
+        this.repository = repository;
+        this.index = index;
+        this.entries = entries;
+        this.fuzzyApplier = new FuzzyApplier(repository, options.getFuzz(), options.isStrict());
+        this.executor = Executors.newFixedThreadPool(Math.max(1, options.getJobs()));
+        for (int i = 0; i < entries.size(); i++) {
+            this.outcomes.add(new CompletableFuture<>());
+        }
+    }
+
+    public void start(ObjectId baseTreeId) {
+        for (List<Integer> group : SeriesIndex.groupByPaths(this.getEntries())) {
+            this.getExecutor().execute(() -> this.applyGroup(baseTreeId, group));
+        }
+    }
+
+    /*
+        Blocks until the patch at the given position of the series has been applied.
+     */
+    public Outcome await(int position) throws InterruptedException, IOException {
+        try {
+            return this.getOutcomes().get(position).get();
+        } catch (ExecutionException e) {
+            throw new IOException("Applying a patch failed unexpectedly", e.getCause());
+        }
+    }
+
+    private void applyGroup(ObjectId baseTreeId, List<Integer> group) {
+        int done = 0;
+        try (ObjectInserter inserter = this.getRepository().newObjectInserter();
+             ObjectReader reader = inserter.newReader();
+             RevWalk walk = new RevWalk(reader)) {
+            RevTree tree = walk.parseTree(baseTreeId);
+
+            for (int position : group) {
+                SeriesIndex.Entry entry = this.getEntries().get(position);
+                PatchesDiff diff = this.getIndex().readPatch(this.getDiffService(), entry);
+                if (diff == null || !this.getDiffService().validatePatch(entry.getFileName(), diff)) {
+                    this.failRemaining(group, done, diff, new IOException("Unable to read patch " + entry.getFileName()));
+                    return;
+                }
+
+                FuzzyApplier.Result result;
+                try (Phase phase = Timings.start("apply", entry.getFileName()).bytes(diff.getDiffLength())) {
+                    result = this.getFuzzyApplier().apply(reader, inserter, tree, diff);
+                    phase.touchedPaths(result.getChanges().size());
+                }
+                if (!result.getErrors().isEmpty()) {
+                    this.failRemaining(group, done, diff, new PatchApplyException("Cannot apply: " + result.getErrors()));
+                    return;
+                }
+
+                tree = walk.parseTree(result.getTreeId());
+                this.getOutcomes().get(position).complete(new Outcome(diff, result.getChanges(), null));
+                done++;
+            }
+        } catch (Exception e) {
+            this.failRemaining(group, done, null, e);
+        }
+    }
+
+    /*
+        The first open patch of the group gets the error, the ones after it can no longer be applied.
+     */
+    private void failRemaining(List<Integer> group, int from, PatchesDiff diff, Exception error) {
+        for (int i = from; i < group.size(); i++) {
+            Exception cause = i == from ? error : new PatchApplyException("An earlier patch touching the same paths failed");
+            this.getOutcomes().get(group.get(i)).complete(new Outcome(i == from ? diff : null, Map.of(), cause));
+        }
+    }
+
+    @Override
+    public void close() {
+        // The workers must be gone before the caller closes the repository they read from
+        this.getExecutor().shutdownNow();
+        try {
+            if (!this.getExecutor().awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Patches are still being applied after one minute");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+        The changes map every touched path to its new content. If the patch failed, error is set
+        and diff is null when the patch could not even be read.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Outcome {
+        private final PatchesDiff diff;
+        private final Map<String, TreeUpdater.Change> changes;
+        private final Exception error;
+    }
+}
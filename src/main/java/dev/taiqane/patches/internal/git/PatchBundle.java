@@ -0,0 +1,304 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.internal.file.ByteBufferInputStream;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/*
+    All patches of a series in one file, so reading the series costs one open instead of one per
+    patch. The layout is
+
+        magic, version
+        the content of every patch, either stored or compressed on its own with Deflater
+        index: count, then per patch its name, method, offset, stored length, size and CRC32
+        offset of the index, magic
+
+    The index sits at the end, so a bundle can be written in one pass. open() maps the file once
+    and reads the index from the trailer; after that every patch can be sliced out or streamed
+    on its own, from any thread.
+ */
+@Getter
+public class PatchBundle {
+    public static final String DEFAULT_FILE_NAME = "patches.bundle";
+    private static final int MAGIC = 0x5042444c; // "PBDL"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int TRAILER_LENGTH = 12;
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+
+    private final File file;
+    private final ByteBuffer data;
+    private final Map<String, Entry> entries;
+
+    private PatchBundle(File file, ByteBuffer data, Map<String, Entry> entries) {
+        this.file = file;
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /*
+        Whether the file starts like a bundle, so a bundle can stand wherever a patches directory can.
+     */
+    public static boolean isBundle(File file) {
+        if (!file.isFile() || file.length() < HEADER_LENGTH + TRAILER_LENGTH) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static PatchBundle open(File file) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Bundle " + file.getName() + " is larger than 2 GB");
+            }
+            // The mapping stays valid after the channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int size = data.limit();
+        if (size < HEADER_LENGTH + TRAILER_LENGTH || data.getInt(0) != MAGIC || data.getInt(size - 4) != MAGIC) {
+            throw new IOException(file.getName() + " is not a patch bundle");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("Bundle " + file.getName() + " has the unsupported version " + data.getInt(4));
+        }
+
+        long indexOffset = data.getLong(size - TRAILER_LENGTH);
+        if (indexOffset < HEADER_LENGTH || indexOffset > size - TRAILER_LENGTH) {
+            throw new IOException("Bundle " + file.getName() + " has a broken index offset");
+        }
+
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteBufferInputStream(data.slice((int) indexOffset, size - TRAILER_LENGTH - (int) indexOffset)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(readString(in), in.readByte(), in.readLong(), in.readLong(), in.readLong(), in.readInt());
+                if (entry.getOffset() < HEADER_LENGTH || entry.getOffset() + entry.getStoredLength() > indexOffset) {
+                    throw new IOException("Patch " + entry.getName() + " lies outside of the bundle " + file.getName());
+                }
+                entries.put(entry.getName(), entry);
+            }
+        }
+        return new PatchBundle(file, data, entries);
+    }
+
+    public List<String> listNames() {
+        return new ArrayList<>(this.getEntries().keySet());
+    }
+
+    public Entry getEntry(String name) {
+        return this.getEntries().get(name);
+    }
+
+    /*
+        The content of a patch. Stored patches are a read-only slice of the mapping, compressed
+        ones are inflated into the heap and checked against their CRC32.
+     */
+    public ByteBuffer read(Entry entry) throws IOException {
+        ByteBuffer stored = this.stored(entry);
+        if (entry.getMethod() == STORED) {
+            return stored;
+        }
+
+        byte[] content = new byte[Math.toIntExact(entry.getSize())];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            int length = 0;
+            while (length < content.length && !inflater.finished()) {
+                int inflated = inflater.inflate(content, length, content.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != content.length) {
+                throw new IOException("Patch " + entry.getName() + " of bundle " + this.getFile().getName() + " is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Patch " + entry.getName() + " of bundle " + this.getFile().getName() + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if ((int) crc.getValue() != entry.getCrc()) {
+            throw new IOException("Patch " + entry.getName() + " of bundle " + this.getFile().getName() + " has a wrong checksum");
+        }
+        return ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    /*
+        Streams a patch without holding all of it in the heap, for example to copy it somewhere.
+     */
+    public InputStream openStream(Entry entry) {
+        InputStream in = new ByteBufferInputStream(this.stored(entry));
+        return entry.getMethod() == STORED ? in : new InflaterInputStream(in);
+    }
+
+    private ByteBuffer stored(Entry entry) {
+        return this.getData().slice((int) entry.getOffset(), (int) entry.getStoredLength()).asReadOnlyBuffer();
+    }
+
+    /*
+        Writes the given patch files in their order into a new bundle. Patches which do not get
+        smaller by compression are stored as they are. The bundle is written next to the target
+        and moved over it at the end, so readers never see half of it.
+     */
+    public static void write(List<File> patchFiles, File target, boolean compress) throws IOException {
+        Path temp = target.toPath().resolveSibling(target.getName() + ".tmp");
+        List<Entry> entries = new ArrayList<>(patchFiles.size());
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (CountingOutputStream counting = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+             DataOutputStream out = new DataOutputStream(counting)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] chunk = new byte[64 * 1024];
+            for (File patchFile : patchFiles) {
+                byte[] content = Files.readAllBytes(patchFile.toPath());
+                CRC32 crc = new CRC32();
+                crc.update(content);
+
+                byte method = STORED;
+                byte[] stored = content;
+                if (compress && content.length > 0) {
+                    deflater.reset();
+                    deflater.setInput(content);
+                    deflater.finish();
+                    compressed.reset();
+                    while (!deflater.finished()) {
+                        compressed.write(chunk, 0, deflater.deflate(chunk));
+                    }
+                    if (compressed.size() < content.length) {
+                        method = DEFLATED;
+                        stored = compressed.toByteArray();
+                    }
+                }
+
+                entries.add(new Entry(patchFile.getName(), method, counting.getCount(), stored.length, content.length, (int) crc.getValue()));
+                out.write(stored);
+            }
+
+            long indexOffset = counting.getCount();
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                writeString(out, entry.getName());
+                out.writeByte(entry.getMethod());
+                out.writeLong(entry.getOffset());
+                out.writeLong(entry.getStoredLength());
+                out.writeLong(entry.getSize());
+                out.writeInt(entry.getCrc());
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+
+        Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+        A patch of the bundle. The stored length is the compressed one, size and CRC32 belong to
+        the original patch file.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final String name;
+        private final byte method;
+        private final long offset;
+        private final long storedLength;
+        private final long size;
+        private final int crc;
+
+        public boolean isCompressed() {
+            return this.getMethod() == DEFLATED;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+}
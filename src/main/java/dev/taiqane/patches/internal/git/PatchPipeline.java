@@ -0,0 +1,98 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Reads, parses and validates the upcoming patches of a series on virtual threads while the
+    current patch is applied. At most `lookahead` patches are in flight ahead of the consumer
+    and next() always hands them out in series order.
+ */
+@Slf4j
+@Getter
+public class PatchPipeline implements AutoCloseable {
+    private final DiffService diffService;
+    private final SeriesIndex index;
+    private final List<SeriesIndex.Entry> patches;
+    private final int lookahead;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Deque<Future<Entry>> inFlight = new ArrayDeque<>();
+    private int submitted = 0;
+
+    public PatchPipeline(DiffService diffService, SeriesIndex index, List<SeriesIndex.Entry> patches, int lookahead) {
+        this.diffService = diffService;
+        this.index = index;
+        this.patches = patches;
+        this.lookahead = Math.max(1, lookahead);
+        this.fill();
+    }
+
+    public boolean hasNext() {
+        return !this.getInFlight().isEmpty();
+    }
+
+    public Entry next() throws InterruptedException {
+        Future<Entry> head = this.getInFlight().poll();
+        if (head == null) {
+            throw new NoSuchElementException("No patches left in the pipeline");
+        }
+        this.fill();
+
+        try {
+            return head.get();
+        } catch (ExecutionException e) {
+            // read() handles its own errors, so this only happens on bugs
+            throw new IllegalStateException("Reading a patch failed unexpectedly", e.getCause());
+        }
+    }
+
+    private void fill() {
+        while (this.getInFlight().size() < this.getLookahead() && this.submitted < this.getPatches().size()) {
+            SeriesIndex.Entry patch = this.getPatches().get(this.submitted++);
+            this.getInFlight().add(this.getExecutor().submit(() -> this.read(patch)));
+        }
+    }
+
+    private Entry read(SeriesIndex.Entry patch) {
+        String fileName = patch.getFileName();
+        try {
+            PatchesDiff diff = this.getIndex().readPatch(this.getDiffService(), patch);
+            if (diff == null || !this.getDiffService().validatePatch(fileName, diff)) {
+                return new Entry(fileName, null);
+            }
+            return new Entry(fileName, diff);
+        } catch (RuntimeException e) {
+            log.error("Unable to read patch {}", fileName, e);
+            return new Entry(fileName, null);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Future<Entry> future : this.getInFlight()) {
+            future.cancel(true);
+        }
+        this.getInFlight().clear();
+        this.getExecutor().shutdownNow();
+    }
+
+    /*
+        The diff is null if the patch could not be read or did not pass the validation.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final String fileName;
+        private final PatchesDiff diff;
+    }
+}
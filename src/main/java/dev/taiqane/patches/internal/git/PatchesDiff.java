@@ -1,7 +1,11 @@
 package dev.taiqane.patches.internal.git;
 
+import dev.taiqane.patches.internal.file.ByteBufferInputStream;
 import lombok.*;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
 
 @Getter
@@ -9,13 +13,40 @@ import java.time.ZonedDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 public class PatchesDiff {
-    private String diffText;
+    // Read-only view on the diff section, usually a slice of the patch file itself
+    private ByteBuffer diffContent;
+    // Offsets of the body and the diff section from the start of the patch file
+    private long bodyOffset;
+    private long diffOffset;
+    // SHA-256 of the complete patch file, headers included
+    private String contentHash;
+    // Name of the patch file the diff was read from
+    private String fileName;
     private String subject;
     private String body;
     private String authorName;
     private String authorEmail;
     private ZonedDateTime authorDate;
 
+    public String getDiffText() {
+        if (this.diffContent == null) {
+            return null;
+        }
+        return StandardCharsets.UTF_8.decode(this.diffContent.duplicate()).toString();
+    }
+
+    public void setDiffText(String diffText) {
+        this.diffContent = diffText == null ? null : ByteBuffer.wrap(diffText.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    public InputStream openDiffStream() {
+        return new ByteBufferInputStream(this.diffContent == null ? ByteBuffer.allocate(0) : this.diffContent);
+    }
+
+    public int getDiffLength() {
+        return this.diffContent == null ? 0 : this.diffContent.remaining();
+    }
+
     public static enum DiffSections {
         HEADERS, BODY, DIFF;
     }
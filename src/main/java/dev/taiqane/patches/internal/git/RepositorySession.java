@@ -0,0 +1,144 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.internal.storage.file.FileSnapshot;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.util.FS;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Hands out the repositories used by the services. In a single command every open() creates a
+    new Repository that is closed again with the returned Git. Once shared mode is enabled by
+    the daemon, repositories stay open between commands, so their pack lists, the object caches
+    and the WindowCache stay warm. Closing the returned Git then leaves the repository open.
+ */
+@Slf4j
+public final class RepositorySession {
+    private static final Map<File, Repository> repositories = new ConcurrentHashMap<>();
+    private static final Map<File, CleanState> cleanStates = new ConcurrentHashMap<>();
+    private static volatile boolean shared = false;
+    private static volatile boolean statusCache = false;
+
+    private RepositorySession() {
+    }
+
+    public static void enableSharing(long packedGitLimit) {
+        WindowCacheConfig config = new WindowCacheConfig();
+        config.setPackedGitLimit(packedGitLimit);
+        config.setDeltaBaseCacheLimit((int) Math.min(Integer.MAX_VALUE, packedGitLimit / 4));
+        config.install();
+        enableSharing();
+    }
+
+    public static void enableSharing() {
+        shared = true;
+    }
+
+    public static void disableSharing() {
+        shared = false;
+        closeAll();
+    }
+
+    /*
+        Lets a step skip the status check when an earlier step of the same run left the working
+        tree clean. Only safe while nobody else touches the work directory, i.e. inside `run`.
+     */
+    public static void setStatusCache(boolean enabled) {
+        statusCache = enabled;
+        cleanStates.clear();
+    }
+
+    public static void markClean(Repository repository) throws IOException {
+        if (!statusCache) {
+            return;
+        }
+        ObjectId head = repository.resolve(Constants.HEAD);
+        if (head != null) {
+            cleanStates.put(repository.getDirectory(), new CleanState(head, FileSnapshot.save(repository.getIndexFile())));
+        }
+    }
+
+    public static void invalidateClean(Repository repository) {
+        cleanStates.remove(repository.getDirectory());
+    }
+
+    /*
+        True if the repository was marked clean and neither HEAD nor the index changed since
+     */
+    public static boolean isKnownClean(Repository repository) throws IOException {
+        CleanState state = statusCache ? cleanStates.get(repository.getDirectory()) : null;
+        if (state == null) {
+            return false;
+        }
+        return state.head().equals(repository.resolve(Constants.HEAD)) && !state.index().isModified(repository.getIndexFile());
+    }
+
+    public static boolean isShared() {
+        return shared;
+    }
+
+    public static Git open(File directory) throws IOException {
+        if (!shared) {
+            return Git.open(directory);
+        }
+
+        File key = directory.getCanonicalFile();
+        Repository repository = repositories.get(key);
+        if (repository != null && !repository.getDirectory().isDirectory()) {
+            // The work directory was deleted or replaced behind our back
+            evict(key);
+            repository = null;
+        }
+        if (repository == null) {
+            File gitDir = RepositoryCache.FileKey.resolve(key, FS.DETECTED);
+            if (gitDir == null) {
+                throw new RepositoryNotFoundException(key);
+            }
+            repository = new FileRepositoryBuilder()
+                    .setGitDir(gitDir)
+                    .setMustExist(true)
+                    .build();
+            Repository existing = repositories.putIfAbsent(key, repository);
+            if (existing != null) {
+                repository.close();
+                repository = existing;
+            }
+        }
+        return Git.wrap(repository);
+    }
+
+    /*
+        Closes the shared repository of the directory, e.g. before it is deleted or created anew
+     */
+    public static void evict(File directory) {
+        try {
+            Repository repository = repositories.remove(directory.getCanonicalFile());
+            cleanStates.keySet().removeIf(gitDir -> gitDir.toPath().startsWith(directory.toPath().toAbsolutePath()));
+            if (repository != null) {
+                repository.close();
+            }
+        } catch (IOException e) {
+            log.debug("Unable to resolve {}", directory, e);
+        }
+    }
+
+    public static void closeAll() {
+        repositories.values().forEach(Repository::close);
+        repositories.clear();
+        cleanStates.clear();
+    }
+
+    private record CleanState(ObjectId head, FileSnapshot index) {
+    }
+}
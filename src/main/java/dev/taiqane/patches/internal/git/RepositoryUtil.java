@@ -0,0 +1,189 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.Checkout;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+@Slf4j
+public final class RepositoryUtil {
+
+    private RepositoryUtil() {
+    }
+
+    /*
+        Checks out newCommitId on top of a clean working tree at oldCommitId and moves HEAD.
+        Only the paths that differ between both trees are written.
+     */
+    public static void moveHead(Repository repository, ObjectId oldCommitId, ObjectId newCommitId, String reflogMessage) throws IOException {
+        try (RevWalk walk = new RevWalk(repository)) {
+            RevCommit oldCommit = walk.parseCommit(oldCommitId);
+            RevCommit newCommit = walk.parseCommit(newCommitId);
+
+            DirCacheCheckout checkout = new DirCacheCheckout(repository, oldCommit.getTree(), repository.lockDirCache(), newCommit.getTree());
+            checkout.setFailOnConflict(true);
+            checkout.checkout();
+
+            updateHead(repository, walk, oldCommitId, newCommitId, reflogMessage);
+        }
+    }
+
+    /*
+        Equivalent of clean + hard reset that only touches the paths which differ between HEAD and
+        the target tree, or which are modified or untracked in the working tree. Ignored files are
+        kept. If the working tree is known to be clean the status walk is skipped. Returns the
+        number of paths that were written or deleted.
+     */
+    public static int restoreToCommit(Git git, ObjectId targetCommitId, String reflogMessage, boolean knownClean) throws IOException, GitAPIException {
+        Repository repository = git.getRepository();
+        File workTree = repository.getWorkTree();
+
+        Set<String> paths = new TreeSet<>();
+        Set<String> untrackedFolders = Set.of();
+        if (!knownClean) {
+            Status status = git.status().call();
+            paths.addAll(status.getUncommittedChanges());
+            paths.addAll(status.getUntracked());
+            untrackedFolders = status.getUntrackedFolders();
+        }
+
+        ObjectId headId = repository.resolve(Constants.HEAD);
+
+        try (ObjectReader reader = repository.newObjectReader();
+             RevWalk walk = new RevWalk(reader)) {
+            RevTree targetTree = walk.parseCommit(targetCommitId).getTree();
+
+            if (headId != null) {
+                try (TreeWalk treeWalk = new TreeWalk(repository, reader)) {
+                    treeWalk.addTree(walk.parseCommit(headId).getTree());
+                    treeWalk.addTree(targetTree);
+                    treeWalk.setRecursive(true);
+                    treeWalk.setFilter(TreeFilter.ANY_DIFF);
+                    while (treeWalk.next()) {
+                        paths.add(treeWalk.getPathString());
+                    }
+                }
+            }
+
+            if (!paths.isEmpty()) {
+                DirCache dirCache = repository.lockDirCache();
+                try {
+                    DirCacheEditor editor = dirCache.editor();
+                    Set<String> targetPaths = new HashSet<>();
+
+                    try (TreeWalk treeWalk = new TreeWalk(repository, reader)) {
+                        treeWalk.addTree(targetTree);
+                        treeWalk.setRecursive(true);
+                        treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+                        while (treeWalk.next()) {
+                            targetPaths.add(treeWalk.getPathString());
+                        }
+                    }
+
+                    // Deletions first, so a file can replace a directory and the other way round
+                    for (String path : paths) {
+                        if (!targetPaths.contains(path)) {
+                            deletePath(workTree, path);
+                            editor.add(new DirCacheEditor.DeletePath(path));
+                        }
+                    }
+
+                    // Written like a checkout does, so eol conversion and smudge filters of the attributes apply
+                    Checkout checkout = new Checkout(repository, repository.getConfig().get(WorkingTreeOptions.KEY)).setRecursiveDeletion(true);
+                    try (TreeWalk treeWalk = new TreeWalk(repository, reader)) {
+                        treeWalk.setOperationType(TreeWalk.OperationType.CHECKOUT_OP);
+                        treeWalk.addTree(targetTree);
+                        treeWalk.setRecursive(true);
+                        treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+                        while (treeWalk.next()) {
+                            DirCacheEntry checkedOut = new DirCacheEntry(treeWalk.getRawPath());
+                            checkedOut.setFileMode(treeWalk.getFileMode(0));
+                            checkedOut.setObjectId(treeWalk.getObjectId(0));
+
+                            DirCacheCheckout.CheckoutMetadata metadata = new DirCacheCheckout.CheckoutMetadata(
+                                    treeWalk.getEolStreamType(TreeWalk.OperationType.CHECKOUT_OP),
+                                    treeWalk.getFilterCommand(Constants.ATTR_FILTER_TYPE_SMUDGE));
+                            checkout.checkout(checkedOut, metadata, reader, null);
+
+                            editor.add(new DirCacheEditor.PathEdit(checkedOut) {
+                                @Override
+                                public void apply(DirCacheEntry entry) {
+                                    entry.copyMetaData(checkedOut);
+                                }
+                            });
+                        }
+                    }
+
+                    editor.commit();
+                } finally {
+                    dirCache.unlock();
+                }
+            }
+
+            for (String folder : untrackedFolders) {
+                FileUtils.delete(new File(workTree, folder), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+            }
+
+            updateHead(repository, walk, null, targetCommitId, reflogMessage);
+        }
+
+        return paths.size();
+    }
+
+    private static void deletePath(File workTree, String path) throws IOException {
+        File file = new File(workTree, path);
+        FileUtils.delete(file, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+
+        // Remove directories that became empty, like a clean with directories would
+        File parent = file.getParentFile();
+        while (parent != null && !parent.equals(workTree)) {
+            String[] children = parent.list();
+            if (children == null || children.length > 0) {
+                break;
+            }
+            Files.delete(parent.toPath());
+            parent = parent.getParentFile();
+        }
+    }
+
+    private static void updateHead(Repository repository, RevWalk walk, ObjectId expectedOldId, ObjectId newCommitId, String reflogMessage) throws IOException {
+        RefUpdate update = repository.updateRef(Constants.HEAD);
+        if (expectedOldId != null) {
+            update.setExpectedOldObjectId(expectedOldId);
+        }
+        update.setNewObjectId(newCommitId);
+        update.setForceUpdate(true);
+        update.setRefLogMessage(reflogMessage, false);
+
+        RefUpdate.Result result = update.update(walk);
+        switch (result) {
+            case NEW, FAST_FORWARD, FORCED, NO_CHANGE -> log.debug("Moved HEAD to {} ({})", newCommitId.getName(), result);
+            default -> throw new IOException("Unable to update HEAD to " + newCommitId.getName() + ": " + result);
+        }
+    }
+}
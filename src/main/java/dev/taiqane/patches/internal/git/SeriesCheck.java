@@ -0,0 +1,149 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.internal.metrics.Phase;
+import dev.taiqane.patches.internal.metrics.Timings;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.eclipse.jgit.api.errors.PatchFormatException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Dry run of the patch series: every patch is applied in memory to the tree it would meet,
+    without a checkout or a commit, and every failing patch is reported instead of only the first.
+    Blobs and trees of the run are kept in a MemoryInserter. Only binary patches, submodules and
+    strict mode, which need PatchApplier, write the trees they are applied to to the object
+    database. Nothing references them and git gc prunes them.
+
+    Patches are grouped by the paths they touch. Groups which share no path cannot influence each
+    other, so every group is applied on its own starting from the base tree, concurrently to the
+    other groups. Within a group the patches are applied in series order.
+ */
+@Getter
+public class SeriesCheck {
+    private final DiffService diffService;
+    private final Repository repository;
+    private final SeriesIndex index;
+    private final FuzzyApplier fuzzyApplier;
+
+    public SeriesCheck(DiffService diffService, Repository repository, SeriesIndex index, ApplyOptions options) {
+        this.diffService = diffService;
+        this.repository = repository;
+        this.index = index;
+        this.fuzzyApplier = new FuzzyApplier(repository, options.getFuzz(), options.isStrict());
+    }
+
+    /*
+        Returns one result per patch of the index, in series order.
+     */
+    public List<Result> run(ObjectId baseCommitId) throws IOException, InterruptedException {
+        ObjectId baseTreeId;
+        try (RevWalk walk = new RevWalk(this.getRepository())) {
+            baseTreeId = walk.parseCommit(baseCommitId).getTree().copy();
+        }
+
+        List<List<Integer>> groups = SeriesIndex.groupByPaths(this.getIndex().getEntries());
+        Result[] results = new Result[this.getIndex().getEntries().size()];
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(groups.size(), Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<Integer> group : groups) {
+                futures.add(executor.submit(() -> {
+                    this.checkGroup(baseTreeId, group, results);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to check the patches", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private void checkGroup(ObjectId baseTreeId, List<Integer> group, Result[] results) throws IOException {
+        try (ObjectInserter inserter = new MemoryInserter(this.getRepository());
+             ObjectReader reader = inserter.newReader();
+             RevWalk walk = new RevWalk(reader)) {
+            RevTree tree = walk.parseTree(baseTreeId);
+
+            // Paths whose content is unknown because the patch changing them failed, with that patch
+            Map<String, String> failedPaths = new HashMap<>();
+
+            for (int i : group) {
+                SeriesIndex.Entry entry = this.getIndex().getEntries().get(i);
+                if (!entry.isValid()) {
+                    results[i] = new Result(State.UNREADABLE, List.of());
+                    continue;
+                }
+
+                String blocker = entry.listTouchedPaths().stream().map(failedPaths::get).filter(name -> name != null).findFirst().orElse(null);
+                if (blocker != null) {
+                    results[i] = new Result(State.SKIPPED, List.of("Depends on the failed patch " + blocker));
+                    entry.listTouchedPaths().forEach(path -> failedPaths.putIfAbsent(path, blocker));
+                    continue;
+                }
+
+                PatchesDiff diff = this.getIndex().readPatch(this.getDiffService(), entry);
+                if (diff == null) {
+                    results[i] = new Result(State.UNREADABLE, List.of());
+                    entry.listTouchedPaths().forEach(path -> failedPaths.put(path, entry.getFileName()));
+                    continue;
+                }
+
+                List<String> errors = new ArrayList<>();
+                try (Phase phase = Timings.start("check", entry.getFileName()).bytes(diff.getDiffLength())) {
+                    FuzzyApplier.Result result = this.getFuzzyApplier().apply(reader, inserter, tree, diff);
+                    phase.touchedPaths(result.getChanges().size());
+                    errors.addAll(result.getErrors());
+                    if (errors.isEmpty()) {
+                        tree = walk.parseTree(result.getTreeId());
+                    }
+                } catch (PatchFormatException e) {
+                    errors.add(e.getMessage());
+                }
+
+                if (errors.isEmpty()) {
+                    results[i] = new Result(State.OK, List.of());
+                } else {
+                    results[i] = new Result(State.FAILED, errors);
+                    entry.listTouchedPaths().forEach(path -> failedPaths.put(path, entry.getFileName()));
+                }
+            }
+        }
+    }
+
+    public enum State {
+        OK, FAILED, SKIPPED, UNREADABLE
+    }
+
+    /*
+        The messages name the failed hunks, or the patch a skipped patch depends on.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Result {
+        private final State state;
+        private final List<String> messages;
+    }
+}
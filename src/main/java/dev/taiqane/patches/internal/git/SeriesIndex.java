@@ -0,0 +1,498 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.internal.metrics.Phase;
+import dev.taiqane.patches.internal.metrics.Timings;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.patch.FileHeader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Binary index of the patch series, kept as .series-index next to the patches. Every entry holds
+    the metadata of one patch file in series order: its content hash, the change id of its diff,
+    the offsets of body and diff, the headers and the paths it touches with the blob ids of its
+    index lines.
+
+    update() only re-reads patch files whose size or modification time changed since the index
+    was written, so listing the series, looking up the apply cache or checking which patches
+    overlap reads a few KB instead of every patch. Files modified within RACY_WINDOW_MILLIS of
+    writing the index are always re-read, as their timestamp cannot tell a later edit apart.
+
+    The series can also come from a PatchBundle. Its index is kept as .<bundle>.series-index next
+    to the bundle, and every patch of it counts as modified whenever the bundle is.
+ */
+@Slf4j
+@Getter
+public class SeriesIndex {
+    public static final String INDEX_FILE_NAME = ".series-index";
+    private static final int MAGIC = 0x50534958; // "PSIX"
+    private static final int VERSION = 2;
+    private static final long RACY_WINDOW_MILLIS = 2_000;
+
+    private final File patchesDirectory;
+    // Null unless the series is read from a bundle, the directory is the one holding the bundle then
+    private final PatchBundle bundle;
+    private final File indexFile;
+    private final List<Entry> entries;
+    private final long writtenAt;
+
+    private SeriesIndex(File patchesDirectory, PatchBundle bundle, File indexFile, List<Entry> entries, long writtenAt) {
+        this.patchesDirectory = patchesDirectory;
+        this.bundle = bundle;
+        this.indexFile = indexFile;
+        this.entries = entries;
+        this.writtenAt = writtenAt;
+    }
+
+    /*
+        Reads the index as it is on disk. A missing or unreadable index, or one written by another
+        version, is returned empty so the next update() rebuilds it completely.
+     */
+    public static SeriesIndex load(File patchesDirectory) {
+        return load(patchesDirectory, null, new File(patchesDirectory, INDEX_FILE_NAME));
+    }
+
+    private static SeriesIndex load(File patchesDirectory, PatchBundle bundle, File indexFile) {
+        if (!indexFile.isFile()) {
+            return new SeriesIndex(patchesDirectory, bundle, indexFile, List.of(), 0);
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.debug("The series index has an unknown format, rebuilding it");
+                return new SeriesIndex(patchesDirectory, bundle, indexFile, List.of(), 0);
+            }
+
+            long writtenAt = in.readLong();
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(readEntry(in));
+            }
+            return new SeriesIndex(patchesDirectory, bundle, indexFile, entries, writtenAt);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read the series index, rebuilding it", e);
+            return new SeriesIndex(patchesDirectory, bundle, indexFile, List.of(), 0);
+        }
+    }
+
+    /*
+        Brings the index in line with the patch files and writes it if anything changed. Patches
+        which cannot be read are kept as invalid entries, so they still have their place in the
+        series.
+     */
+    public static SeriesIndex update(DiffService diffService, File patchesSource) throws IOException {
+        try (Phase ignored = Timings.start("index")) {
+            if (patchesSource.isFile()) {
+                return updateFromBundle(diffService, patchesSource);
+            }
+
+            File[] patchFiles = patchesSource.listFiles((dir, name) -> name.toLowerCase().endsWith(".patch"));
+            if (patchFiles == null) {
+                return new SeriesIndex(patchesSource, null, new File(patchesSource, INDEX_FILE_NAME), List.of(), 0);
+            }
+            // listFiles() has no defined order, but the patches build on top of each other
+            Arrays.sort(patchFiles, Comparator.comparing(File::getName));
+
+            List<Source> sources = new ArrayList<>(patchFiles.length);
+            for (File file : patchFiles) {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                sources.add(new Source(file.getName(), attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+            return update(diffService, load(patchesSource), sources);
+        }
+    }
+
+    /*
+        The patches of a bundle keep the order they were packed in.
+     */
+    private static SeriesIndex updateFromBundle(DiffService diffService, File bundleFile) throws IOException {
+        PatchBundle bundle = PatchBundle.open(bundleFile);
+        long lastModified = Files.getLastModifiedTime(bundleFile.toPath()).toMillis();
+
+        List<Source> sources = new ArrayList<>();
+        for (PatchBundle.Entry entry : bundle.getEntries().values()) {
+            sources.add(new Source(entry.getName(), entry.getSize(), lastModified));
+        }
+
+        File directory = bundleFile.getAbsoluteFile().getParentFile();
+        return update(diffService, load(directory, bundle, new File(directory, "." + bundleFile.getName() + INDEX_FILE_NAME)), sources);
+    }
+
+    private static SeriesIndex update(DiffService diffService, SeriesIndex previous, List<Source> sources) throws IOException {
+        Map<String, Entry> known = new HashMap<>();
+        for (Entry entry : previous.getEntries()) {
+            known.put(entry.getFileName(), entry);
+        }
+
+        List<Entry> entries = new ArrayList<>(sources.size());
+        List<Future<Entry>> reads = new ArrayList<>();
+        boolean changed = sources.size() != previous.getEntries().size();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < sources.size(); i++) {
+                Source source = sources.get(i);
+                long size = source.getSize();
+                long lastModified = source.getLastModified();
+
+                Entry entry = known.get(source.getName());
+                boolean reusable = entry != null
+                        && entry.getSize() == size
+                        && entry.getLastModified() == lastModified
+                        && lastModified + RACY_WINDOW_MILLIS < previous.getWrittenAt();
+                if (reusable) {
+                    changed |= i >= previous.getEntries().size() || previous.getEntries().get(i) != entry;
+                    entries.add(entry);
+                    reads.add(null);
+                } else {
+                    changed = true;
+                    entries.add(null);
+                    reads.add(executor.submit(() -> readEntry(diffService, previous.readPatch(diffService, source.getName()), source)));
+                }
+            }
+
+            for (int i = 0; i < reads.size(); i++) {
+                if (reads.get(i) != null) {
+                    entries.set(i, reads.get(i).get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing the patches", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to index the patches", e.getCause());
+        }
+
+        if (!changed) {
+            return previous;
+        }
+
+        SeriesIndex index = new SeriesIndex(previous.getPatchesDirectory(), previous.getBundle(), previous.getIndexFile(), entries, System.currentTimeMillis());
+        index.save();
+        return index;
+    }
+
+    /*
+        The patch file of an entry, only for series which are not read from a bundle.
+     */
+    public File fileOf(Entry entry) {
+        return new File(this.getPatchesDirectory(), entry.getFileName());
+    }
+
+    /*
+        Reads and parses a patch of the series from its file or from the bundle. Returns null if
+        it cannot be read, like DiffService.readPatches().
+     */
+    public PatchesDiff readPatch(DiffService diffService, Entry entry) {
+        return this.readPatch(diffService, entry.getFileName());
+    }
+
+    private PatchesDiff readPatch(DiffService diffService, String fileName) {
+        if (this.getBundle() == null) {
+            return diffService.readPatches(new File(this.getPatchesDirectory(), fileName));
+        }
+
+        try {
+            return diffService.readPatches(fileName, this.getBundle().read(this.getBundle().getEntry(fileName)));
+        } catch (IOException e) {
+            log.error("Unable to read patch {} from the bundle", fileName, e);
+            return null;
+        }
+    }
+
+    /*
+        A range of the raw patch, for example its body, without parsing the rest of it.
+     */
+    public ByteBuffer readRange(Entry entry, long offset, int length) throws IOException {
+        if (this.getBundle() != null) {
+            ByteBuffer content = this.getBundle().read(this.getBundle().getEntry(entry.getFileName()));
+            return content.slice((int) offset, Math.min(length, content.limit() - (int) offset));
+        }
+
+        ByteBuffer range = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(this.fileOf(entry).toPath(), StandardOpenOption.READ)) {
+            while (range.hasRemaining()) {
+                if (channel.read(range, offset + range.position()) < 0) {
+                    break;
+                }
+            }
+        }
+        return range.flip();
+    }
+
+    public int indexOf(String fileName) {
+        for (int i = 0; i < this.getEntries().size(); i++) {
+            if (this.getEntries().get(i).getFileName().equals(fileName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+        Connects every patch with the earlier patches touching one of its paths. Patches of
+        different groups touch disjoint paths and cannot influence each other. The groups keep
+        their patches in series order.
+     */
+    public static List<List<Integer>> groupByPaths(List<Entry> entries) {
+        int[] parent = new int[entries.size()];
+        Arrays.setAll(parent, i -> i);
+
+        Map<String, Integer> firstPatchOfPath = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            for (String path : entries.get(i).listTouchedPaths()) {
+                Integer first = firstPatchOfPath.putIfAbsent(path, i);
+                if (first != null) {
+                    parent[find(parent, i)] = find(parent, first);
+                }
+            }
+        }
+
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            groups.computeIfAbsent(find(parent, i), root -> new ArrayList<>()).add(i);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private void save() {
+        Path target = this.getIndexFile().toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(this.getWrittenAt());
+            out.writeInt(this.getEntries().size());
+            for (Entry entry : this.getEntries()) {
+                writeEntry(out, entry);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to write the series index", e);
+            return;
+        }
+
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to replace the series index", e);
+        }
+    }
+
+    private static Entry readEntry(DiffService diffService, PatchesDiff diff, Source source) throws IOException {
+        String fileName = source.getName();
+        long size = source.getSize();
+        long lastModified = source.getLastModified();
+        if (diff == null) {
+            return Entry.invalid(fileName, size, lastModified);
+        }
+
+        List<TouchedPath> paths = new ArrayList<>();
+        for (FileHeader header : diffService.parseFileHeaders(diff)) {
+            paths.add(new TouchedPath(header.getChangeType(), header.getOldPath(), header.getNewPath(), idName(header.getOldId()), idName(header.getNewId())));
+        }
+
+        return new Entry(fileName, size, lastModified, true, diff.getContentHash(), DiffService.changeId(diff.getDiffContent()), diff.getBodyOffset(), diff.getDiffOffset(), diff.getDiffLength(),
+                diff.getSubject(), diff.getAuthorName(), diff.getAuthorEmail(), diff.getAuthorDate(), paths);
+    }
+
+    private static String idName(AbbreviatedObjectId id) {
+        return id == null ? "" : id.name();
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        writeString(out, entry.getFileName());
+        out.writeLong(entry.getSize());
+        out.writeLong(entry.getLastModified());
+        out.writeBoolean(entry.isValid());
+        if (!entry.isValid()) {
+            return;
+        }
+
+        writeString(out, entry.getContentHash());
+        writeString(out, entry.getChangeId());
+        out.writeLong(entry.getBodyOffset());
+        out.writeLong(entry.getDiffOffset());
+        out.writeLong(entry.getDiffLength());
+        writeString(out, entry.getSubject());
+        writeString(out, entry.getAuthorName());
+        writeString(out, entry.getAuthorEmail());
+        out.writeBoolean(entry.getAuthorDate() != null);
+        if (entry.getAuthorDate() != null) {
+            out.writeLong(entry.getAuthorDate().toEpochSecond());
+            writeString(out, entry.getAuthorDate().getZone().getId());
+        }
+
+        out.writeInt(entry.getPaths().size());
+        for (TouchedPath path : entry.getPaths()) {
+            out.writeByte(path.getChangeType().ordinal());
+            writeString(out, path.getOldPath());
+            writeString(out, path.getNewPath());
+            writeString(out, path.getOldId());
+            writeString(out, path.getNewId());
+        }
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        String fileName = readString(in);
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        if (!in.readBoolean()) {
+            return Entry.invalid(fileName, size, lastModified);
+        }
+
+        String contentHash = readString(in);
+        String changeId = readString(in);
+        long bodyOffset = in.readLong();
+        long diffOffset = in.readLong();
+        long diffLength = in.readLong();
+        String subject = readString(in);
+        String authorName = readString(in);
+        String authorEmail = readString(in);
+        ZonedDateTime authorDate = null;
+        if (in.readBoolean()) {
+            long epochSecond = in.readLong();
+            authorDate = ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), ZoneId.of(readString(in)));
+        }
+
+        int pathCount = in.readInt();
+        List<TouchedPath> paths = new ArrayList<>(pathCount);
+        for (int i = 0; i < pathCount; i++) {
+            DiffEntry.ChangeType changeType = DiffEntry.ChangeType.values()[in.readByte()];
+            paths.add(new TouchedPath(changeType, readString(in), readString(in), readString(in), readString(in)));
+        }
+
+        return new Entry(fileName, size, lastModified, true, contentHash, changeId, bodyOffset, diffOffset, diffLength, subject, authorName, authorEmail, authorDate, paths);
+    }
+
+    // Unlike writeUTF() these are not limited to 64 KB and keep null apart from ""
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /*
+        A patch as found in the directory or the bundle, before it is indexed.
+     */
+    @Getter
+    @AllArgsConstructor
+    private static class Source {
+        private final String name;
+        private final long size;
+        private final long lastModified;
+    }
+
+    /*
+        An invalid entry belongs to a patch that could not be read, only its file data is set.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final String fileName;
+        private final long size;
+        private final long lastModified;
+        private final boolean valid;
+        private final String contentHash;
+        private final String changeId;
+        private final long bodyOffset;
+        private final long diffOffset;
+        private final long diffLength;
+        private final String subject;
+        private final String authorName;
+        private final String authorEmail;
+        private final ZonedDateTime authorDate;
+        private final List<TouchedPath> paths;
+
+        /*
+            Every path the patch reads or writes, the sources of renames and copies included.
+         */
+        public List<String> listTouchedPaths() {
+            List<String> touched = new ArrayList<>();
+            for (TouchedPath path : this.getPaths()) {
+                if (!DiffEntry.DEV_NULL.equals(path.getOldPath())) {
+                    touched.add(path.getOldPath());
+                }
+                if (!DiffEntry.DEV_NULL.equals(path.getNewPath()) && !path.getNewPath().equals(path.getOldPath())) {
+                    touched.add(path.getNewPath());
+                }
+            }
+            return touched;
+        }
+
+        private static Entry invalid(String fileName, long size, long lastModified) {
+            return new Entry(fileName, size, lastModified, false, null, null, 0, 0, 0, null, null, null, null, List.of());
+        }
+    }
+
+    /*
+        A file of the patch as described by its diff header. The ids are the abbreviated blob ids
+        of the index line and empty if the patch has none, for example for binary or mode changes.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class TouchedPath {
+        private final DiffEntry.ChangeType changeType;
+        private final String oldPath;
+        private final String newPath;
+        private final String oldId;
+        private final String newId;
+
+        public String getPath() {
+            return this.getChangeType() == DiffEntry.ChangeType.DELETE ? this.getOldPath() : this.getNewPath();
+        }
+    }
+}
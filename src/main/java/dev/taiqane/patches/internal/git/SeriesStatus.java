@@ -0,0 +1,195 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Compares the commits between the base and HEAD with the patch series. Commits and patches are
+    paired by subject, author and author date first, then by their changes. The change id of a
+    commit is computed from the diff of its tree against its parent and compared with the one the
+    series index holds for the patch, so patch files are not parsed and nothing is checked out.
+ */
+@Getter
+public class SeriesStatus {
+    private final List<Item> items;
+
+    private SeriesStatus(List<Item> items) {
+        this.items = items;
+    }
+
+    public static SeriesStatus compute(Repository repository, ObjectId baseCommitId, ObjectId headCommitId, SeriesIndex index) throws IOException {
+        List<RevCommit> commits = new ArrayList<>();
+        List<String> commitChangeIds = new ArrayList<>();
+
+        try (ObjectReader reader = repository.newObjectReader();
+             RevWalk walk = new RevWalk(reader)) {
+            walk.sort(RevSort.TOPO);
+            walk.sort(RevSort.REVERSE, true);
+            walk.markStart(walk.parseCommit(headCommitId));
+            walk.markUninteresting(walk.parseCommit(baseCommitId));
+
+            for (RevCommit commit : walk) {
+                commits.add(commit);
+            }
+        }
+
+        // Formatting the commits is the expensive part, every commit gets its own reader
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<String>> changeIds = new ArrayList<>();
+            for (RevCommit commit : commits) {
+                changeIds.add(executor.submit(() -> {
+                    try (ObjectReader reader = repository.newObjectReader()) {
+                        return changeId(repository, reader, commit);
+                    }
+                }));
+            }
+            for (Future<String> changeId : changeIds) {
+                commitChangeIds.add(changeId.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while comparing the commits", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compare the commits with the patches", e.getCause());
+        }
+
+        List<SeriesIndex.Entry> patches = index.getEntries();
+        int[] commitOfPatch = new int[patches.size()];
+        Arrays.fill(commitOfPatch, -1);
+        boolean[] paired = new boolean[commits.size()];
+
+        // Pairing by metadata keeps amended commits together with the patch they came from
+        Map<String, Deque<Integer>> commitsByKey = new HashMap<>();
+        for (int i = 0; i < commits.size(); i++) {
+            RevCommit commit = commits.get(i);
+            String key = metadataKey(commit.getShortMessage().trim(), commit.getAuthorIdent().getEmailAddress(), commit.getAuthorIdent().getWhenAsInstant().getEpochSecond());
+            commitsByKey.computeIfAbsent(key, k -> new ArrayDeque<>()).add(i);
+        }
+        for (int p = 0; p < patches.size(); p++) {
+            SeriesIndex.Entry patch = patches.get(p);
+            if (!patch.isValid() || patch.getAuthorDate() == null) {
+                continue;
+            }
+            Deque<Integer> candidates = commitsByKey.get(metadataKey(patch.getSubject(), patch.getAuthorEmail(), patch.getAuthorDate().toEpochSecond()));
+            if (candidates != null && !candidates.isEmpty()) {
+                int c = candidates.poll();
+                commitOfPatch[p] = c;
+                paired[c] = true;
+            }
+        }
+
+        // Commits whose message or author changed are still found by their changes
+        for (int p = 0; p < patches.size(); p++) {
+            if (commitOfPatch[p] >= 0 || !patches.get(p).isValid()) {
+                continue;
+            }
+            for (int c = 0; c < commits.size(); c++) {
+                if (!paired[c] && commitChangeIds.get(c).equals(patches.get(p).getChangeId())) {
+                    commitOfPatch[p] = c;
+                    paired[c] = true;
+                    break;
+                }
+            }
+        }
+
+        List<Item> items = new ArrayList<>();
+        for (int p = 0; p < patches.size(); p++) {
+            SeriesIndex.Entry patch = patches.get(p);
+            int c = commitOfPatch[p];
+            if (!patch.isValid()) {
+                items.add(new Item(State.UNREADABLE, patch, null));
+            } else if (c < 0) {
+                items.add(new Item(State.MISSING, patch, null));
+            } else {
+                RevCommit commit = commits.get(c);
+                boolean same = commitChangeIds.get(c).equals(patch.getChangeId())
+                        && hasSameMessage(commit, patch, index);
+                items.add(new Item(same ? State.APPLIED : State.MODIFIED, patch, commit));
+            }
+        }
+        for (int c = 0; c < commits.size(); c++) {
+            if (!paired[c]) {
+                items.add(new Item(State.NEW, null, commits.get(c)));
+            }
+        }
+        return new SeriesStatus(items);
+    }
+
+    public long count(State state) {
+        return this.getItems().stream().filter(item -> item.getState() == state).count();
+    }
+
+    private static String metadataKey(String subject, String authorEmail, long authorSeconds) {
+        return subject + "\n" + authorEmail + "\n" + authorSeconds;
+    }
+
+    private static String changeId(Repository repository, ObjectReader reader, RevCommit commit) throws IOException {
+        // Formatted like rebuild-patches does, so renames are detected the same way
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+             DiffFormatter formatter = new DiffFormatter(out)) {
+            formatter.setReader(reader, repository.getConfig());
+            formatter.setDiffComparator(RawTextComparator.DEFAULT);
+            formatter.setDetectRenames(true);
+            formatter.format(commit.getParentCount() > 0 ? commit.getParent(0).getTree() : null, commit.getTree());
+            formatter.flush();
+            return DiffService.changeId(ByteBuffer.wrap(out.toByteArray()));
+        }
+    }
+
+    /*
+        The index has no bodies, so only the few bytes between body and diff are read from the file.
+     */
+    private static boolean hasSameMessage(RevCommit commit, SeriesIndex.Entry patch, SeriesIndex index) throws IOException {
+        if (!commit.getShortMessage().trim().equals(patch.getSubject())
+                || !commit.getAuthorIdent().getName().equals(patch.getAuthorName())
+                || !commit.getAuthorIdent().getEmailAddress().equals(patch.getAuthorEmail())) {
+            return false;
+        }
+
+        String message = commit.getFullMessage();
+        int newline = message.indexOf('\n');
+        String commitBody = newline < 0 ? "" : message.substring(newline + 1).strip();
+
+        ByteBuffer body = index.readRange(patch, patch.getBodyOffset(), (int) (patch.getDiffOffset() - patch.getBodyOffset()));
+        return StandardCharsets.UTF_8.decode(body).toString().strip().equals(commitBody);
+    }
+
+    public enum State {
+        APPLIED, MODIFIED, MISSING, NEW, UNREADABLE
+    }
+
+    /*
+        The patch is null for NEW commits, the commit is null for MISSING and UNREADABLE patches.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Item {
+        private final State state;
+        private final SeriesIndex.Entry patch;
+        private final RevCommit commit;
+    }
+}
@@ -0,0 +1,106 @@
+package dev.taiqane.patches.internal.git;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.Paths;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Writes a new tree from an existing one and a set of changed paths. Only the trees on the way
+    to a changed path are read and written again, everything else keeps its id, so the cost of a
+    change does not grow with the size of the repository like an in-core DirCache does.
+ */
+final class TreeUpdater {
+
+    private TreeUpdater() {
+    }
+
+    /*
+        The changes map full paths to their new content, a change without an id deletes the path.
+        Directories which end up empty are dropped, like git does.
+     */
+    static ObjectId update(ObjectReader reader, ObjectInserter inserter, ObjectId treeId, Map<String, Change> changes) throws IOException {
+        ObjectId newTreeId = updateTree(reader, inserter, treeId, changes);
+        return newTreeId != null ? newTreeId : inserter.insert(Constants.OBJ_TREE, new byte[0]);
+    }
+
+    private static ObjectId updateTree(ObjectReader reader, ObjectInserter inserter, ObjectId treeId, Map<String, Change> changes) throws IOException {
+        Map<String, Change> entries = new HashMap<>();
+        if (treeId != null) {
+            CanonicalTreeParser parser = new CanonicalTreeParser(null, reader, treeId);
+            while (!parser.eof()) {
+                entries.put(parser.getEntryPathString(), new Change(parser.getEntryFileMode(), parser.getEntryObjectId()));
+                parser.next();
+            }
+        }
+
+        // Changes of this directory first, so a deleted file can make room for a new directory
+        Map<String, Map<String, Change>> nested = new HashMap<>();
+        for (Map.Entry<String, Change> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue().getId() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, change.getValue());
+                }
+            } else {
+                nested.computeIfAbsent(path.substring(0, slash), name -> new HashMap<>()).put(path.substring(slash + 1), change.getValue());
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Change>> directory : nested.entrySet()) {
+            Change existing = entries.get(directory.getKey());
+            ObjectId subtreeId = existing != null && FileMode.TREE.equals(existing.getMode().getBits()) ? existing.getId() : null;
+            ObjectId newSubtreeId = updateTree(reader, inserter, subtreeId, directory.getValue());
+            if (newSubtreeId == null) {
+                entries.remove(directory.getKey());
+            } else {
+                entries.put(directory.getKey(), new Change(FileMode.TREE, newSubtreeId));
+            }
+        }
+
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        List<Map.Entry<byte[], Change>> sorted = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Change> entry : entries.entrySet()) {
+            sorted.add(Map.entry(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+        }
+        // Git orders directories as if their name ended with a slash
+        sorted.sort((a, b) -> Paths.compare(a.getKey(), 0, a.getKey().length, a.getValue().getMode().getBits(),
+                b.getKey(), 0, b.getKey().length, b.getValue().getMode().getBits()));
+
+        TreeFormatter formatter = new TreeFormatter();
+        for (Map.Entry<byte[], Change> entry : sorted) {
+            formatter.append(entry.getKey(), entry.getValue().getMode(), entry.getValue().getId());
+        }
+        return formatter.insertTo(inserter);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static final class Change {
+        private final FileMode mode;
+        private final ObjectId id;
+
+        static Change delete() {
+            return new Change(FileMode.MISSING, null);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package dev.taiqane.patches.internal.metrics;
+
+import lombok.Getter;
+
+/*
+    A running phase started by Timings.start(). Closing it commits the JFR event and, with
+    --timings, adds the phase to the report.
+ */
+@Getter
+public class Phase implements AutoCloseable {
+    private final String name;
+    private final PhaseEvent event = new PhaseEvent();
+    private final long startNanos = System.nanoTime();
+    private final long startAllocatedBytes;
+    private String patch;
+    private long bytes;
+    private int touchedPaths;
+
+    Phase(String name, String patch) {
+        this.name = name;
+        this.patch = patch;
+        this.startAllocatedBytes = Timings.isEnabled() ? Timings.currentThreadAllocatedBytes() : -1;
+        this.event.begin();
+    }
+
+    public Phase patch(String patch) {
+        this.patch = patch;
+        return this;
+    }
+
+    public Phase bytes(long bytes) {
+        this.bytes = bytes;
+        return this;
+    }
+
+    public Phase touchedPaths(int touchedPaths) {
+        this.touchedPaths = touchedPaths;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        this.event.end();
+        if (this.event.shouldCommit()) {
+            this.event.setPhase(this.name);
+            this.event.setPatch(this.patch);
+            this.event.setBytes(this.bytes);
+            this.event.setTouchedPaths(this.touchedPaths);
+            this.event.commit();
+        }
+
+        if (Timings.isEnabled()) {
+            long allocated = -1;
+            if (this.startAllocatedBytes >= 0) {
+                long now = Timings.currentThreadAllocatedBytes();
+                allocated = now >= 0 ? now - this.startAllocatedBytes : -1;
+            }
+            Timings.record(new Timings.Record(this.name, this.patch, System.nanoTime() - this.startNanos, allocated, this.bytes, this.touchedPaths));
+        }
+    }
+}
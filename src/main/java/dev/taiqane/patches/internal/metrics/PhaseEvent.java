@@ -0,0 +1,37 @@
+package dev.taiqane.patches.internal.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import lombok.Getter;
+import lombok.Setter;
+
+/*
+    Recorded whenever a Flight Recorder recording is running, e.g. with
+    -XX:StartFlightRecording=filename=patches.jfr
+ */
+@Name("dev.taiqane.patches.Phase")
+@Label("Patches Phase")
+@Category("Patches")
+@Description("A phase of a patches command, like reading, applying or committing a patch")
+@StackTrace(false)
+@Getter
+@Setter
+public class PhaseEvent extends Event {
+    @Label("Phase")
+    private String phase;
+
+    @Label("Patch")
+    private String patch;
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    @Label("Touched Paths")
+    private int touchedPaths;
+}
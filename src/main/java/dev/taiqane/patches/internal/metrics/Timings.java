@@ -0,0 +1,207 @@
+package dev.taiqane.patches.internal.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+    Collects the duration and heap allocation of each phase of a command and writes them as a
+    JSON report once the command is done. Phases are always emitted as JFR events, the report
+    is only collected when it was requested with --timings.
+ */
+@Slf4j
+public final class Timings {
+    public static final String STANDARD_OUTPUT = "-";
+
+    private static final Queue<Record> records = new ConcurrentLinkedQueue<>();
+    private static volatile long startNanos = System.nanoTime();
+    private static volatile String target;
+
+    private Timings() {
+    }
+
+    public static void enable(String reportTarget) {
+        target = reportTarget == null || reportTarget.isBlank() ? STANDARD_OUTPUT : reportTarget;
+    }
+
+    /*
+        Starts a new report, used by the daemon before each command
+     */
+    public static void reset() {
+        records.clear();
+        startNanos = System.nanoTime();
+        target = null;
+    }
+
+    public static boolean isEnabled() {
+        return target != null;
+    }
+
+    public static Phase start(String phase) {
+        return new Phase(phase, null);
+    }
+
+    public static Phase start(String phase, String patch) {
+        return new Phase(phase, patch);
+    }
+
+    static void record(Record record) {
+        records.add(record);
+    }
+
+    /*
+        Allocated bytes of the current thread, or -1 if the JVM can not tell (e.g. virtual threads)
+     */
+    static long currentThreadAllocatedBytes() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean sunBean && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getCurrentThreadAllocatedBytes();
+            }
+        } catch (RuntimeException | LinkageError ignored) {
+            // Not available in every runtime, the report then has no allocation numbers
+        }
+        return -1;
+    }
+
+    public static void writeReport() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        String json = toJson();
+        if (STANDARD_OUTPUT.equals(target)) {
+            System.out.println(json);
+            return;
+        }
+
+        try {
+            Files.writeString(Path.of(target), json + "\n", StandardCharsets.UTF_8);
+            log.info("Wrote the timing report to {}", target);
+        } catch (IOException e) {
+            log.error("Unable to write the timing report to {}", target, e);
+        }
+    }
+
+    private static String toJson() {
+        Map<String, Summary> phases = new LinkedHashMap<>();
+        Map<String, PatchSummary> patches = new LinkedHashMap<>();
+
+        for (Record record : records) {
+            phases.computeIfAbsent(record.phase(), ignored -> new Summary()).add(record);
+            if (record.patch() != null) {
+                PatchSummary patch = patches.computeIfAbsent(record.patch(), ignored -> new PatchSummary());
+                patch.add(record);
+                patch.phases.computeIfAbsent(record.phase(), ignored -> new Summary()).add(record);
+            }
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"totalMillis\": ").append(millis(System.nanoTime() - startNanos)).append(",\n");
+
+        json.append("  \"phases\": [");
+        String separator = "\n";
+        for (Map.Entry<String, Summary> entry : phases.entrySet()) {
+            json.append(separator).append("    {\"phase\": ").append(quote(entry.getKey())).append(", ");
+            entry.getValue().appendTo(json);
+            json.append("}");
+            separator = ",\n";
+        }
+        json.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+
+        json.append("  \"patches\": [");
+        separator = "\n";
+        for (Map.Entry<String, PatchSummary> entry : patches.entrySet()) {
+            PatchSummary patch = entry.getValue();
+            json.append(separator).append("    {\"patch\": ").append(quote(entry.getKey())).append(", ");
+            patch.appendTo(json);
+            json.append(", \"bytes\": ").append(patch.bytes)
+                    .append(", \"touchedPaths\": ").append(patch.touchedPaths)
+                    .append(", \"phases\": {");
+            String phaseSeparator = "";
+            for (Map.Entry<String, Summary> phase : patch.phases.entrySet()) {
+                json.append(phaseSeparator).append(quote(phase.getKey())).append(": ").append(millis(phase.getValue().nanos));
+                phaseSeparator = ", ";
+            }
+            json.append("}}");
+            separator = ",\n";
+        }
+        json.append(patches.isEmpty() ? "]\n" : "\n  ]\n");
+
+        return json.append("}").toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    record Record(String phase, String patch, long nanos, long allocatedBytes, long bytes, int touchedPaths) {
+    }
+
+    private static class Summary {
+        int count;
+        long nanos;
+        long allocatedBytes;
+        boolean allocationKnown = true;
+
+        void add(Record record) {
+            this.count++;
+            this.nanos += record.nanos();
+            if (record.allocatedBytes() < 0) {
+                this.allocationKnown = false;
+            } else {
+                this.allocatedBytes += record.allocatedBytes();
+            }
+        }
+
+        void appendTo(StringBuilder json) {
+            json.append("\"count\": ").append(this.count)
+                    .append(", \"millis\": ").append(millis(this.nanos))
+                    .append(", \"allocatedBytes\": ").append(this.allocationKnown ? String.valueOf(this.allocatedBytes) : "null");
+        }
+    }
+
+    private static class PatchSummary extends Summary {
+        final Map<String, Summary> phases = new LinkedHashMap<>();
+        long bytes;
+        int touchedPaths;
+
+        @Override
+        void add(Record record) {
+            super.add(record);
+            this.bytes = Math.max(this.bytes, record.bytes());
+            this.touchedPaths = Math.max(this.touchedPaths, record.touchedPaths());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package dev.taiqane.patches.cli.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+    Splits steps of run into their arguments, with and without quotes.
+ */
+class RunCommandTest {
+
+    @Test
+    void stepsAreSplitAtWhitespace() {
+        assertEquals(List.of("apply", "-M", "--no-cache"), RunCommand.splitStep("  apply\t-M   --no-cache "));
+    }
+
+    @Test
+    void quotedArgumentsKeepTheirSpaces() {
+        assertEquals(List.of("import-mbox", "my series.mbox"), RunCommand.splitStep("import-mbox 'my series.mbox'"));
+        assertEquals(List.of("import-mbox", "my \"new\" series.mbox"), RunCommand.splitStep("import-mbox \"my \\\"new\\\" series.mbox\""));
+        assertEquals(List.of("create-patch", "fix it's broken"), RunCommand.splitStep("create-patch fix\\ it\"'\"s' broken'"));
+        assertEquals(List.of("apply", ""), RunCommand.splitStep("apply ''"));
+        // Single quotes keep backslashes
+        assertEquals(List.of("import-mbox", "C:\\series.mbox"), RunCommand.splitStep("import-mbox 'C:\\series.mbox'"));
+    }
+
+    @Test
+    void unterminatedQuoteIsRejected() {
+        assertNull(RunCommand.splitStep("import-mbox 'my series.mbox"));
+        assertNull(RunCommand.splitStep("import-mbox \"my series.mbox"));
+    }
+}
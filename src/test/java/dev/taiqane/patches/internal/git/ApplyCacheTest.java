@@ -0,0 +1,79 @@
+package dev.taiqane.patches.internal.git;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.PatchApplyException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+    Caches the commit of a patch that only applies with fuzz and checks that a run with other
+    engine settings does not reuse it, like apply does with the keys of the series.
+ */
+class ApplyCacheTest {
+    private static final String PATCH = """
+            From: Pat Ch <p@example.com>
+            Date: Sun, 18 Oct 2026 14:03:38 +0000
+            Subject: Change line 3
+
+            diff --git a/f.txt b/f.txt
+            --- a/f.txt
+            +++ b/f.txt
+            @@ -1,5 +1,5 @@
+             line one
+             line 2
+            -line 3
+            +changed
+             line 4
+             line 5
+            """;
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void fuzzyResultIsNotReusedUnderStrict() throws Exception {
+        try (Git git = Git.init().setDirectory(this.temp.toFile()).setInitialBranch("main").call()) {
+            // The first context line of the patch no longer matches, only fuzz 1 gets it applied
+            Files.writeString(this.temp.resolve("f.txt"), "line 1\nline 2\nline 3\nline 4\nline 5\n");
+            git.add().addFilepattern("f.txt").call();
+            RevCommit base = git.commit().setMessage("base").setSign(false).call();
+
+            PatchesDiff diff = new DiffService().readPatches("0001-Change-line-3.patch", ByteBuffer.wrap(PATCH.getBytes(StandardCharsets.UTF_8)));
+            assertNotNull(diff);
+
+            ApplyOptions fuzzy = new ApplyOptions();
+            fuzzy.setFuzz(1);
+            ApplyOptions strict = new ApplyOptions();
+            strict.setStrict(true);
+
+            ObjectId fuzzyCommitId;
+            try (InMemoryApplier applier = new InMemoryApplier(git.getRepository(), fuzzy)) {
+                fuzzyCommitId = applier.applyPatch(base, diff);
+                applier.getInserter().flush();
+            }
+
+            ApplyCache cache = ApplyCache.load(git.getRepository());
+            cache.put(ApplyCache.chainKey(base.name(), ApplyCache.engineOf(fuzzy), diff.getContentHash()), fuzzyCommitId);
+            cache.save();
+
+            ApplyCache reloaded = ApplyCache.load(git.getRepository());
+            assertEquals(fuzzyCommitId, reloaded.lookup(git.getRepository(), ApplyCache.chainKey(base.name(), ApplyCache.engineOf(fuzzy), diff.getContentHash())));
+            assertNull(reloaded.lookup(git.getRepository(), ApplyCache.chainKey(base.name(), ApplyCache.engineOf(strict), diff.getContentHash())));
+            assertNull(reloaded.lookup(git.getRepository(), ApplyCache.chainKey(base.name(), ApplyCache.engineOf(new ApplyOptions()), diff.getContentHash())));
+
+            // Without the cache the strict run fails, as it has to
+            try (InMemoryApplier applier = new InMemoryApplier(git.getRepository(), strict)) {
+                assertThrows(PatchApplyException.class, () -> applier.applyPatch(base, diff));
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.configuration.CloneMode;
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+    Clones a local upstream through file:// in every clone mode and checks which refs and how
+    much history arrived.
+ */
+class CloneModeTest {
+    @TempDir
+    Path temp;
+
+    private File upstream;
+    private RevCommit first;
+    private RevCommit tagged;
+    private RevCommit head;
+    private RevCommit otherHead;
+
+    @BeforeEach
+    void createUpstream() throws Exception {
+        this.upstream = this.temp.resolve("upstream").toFile();
+        try (Git git = Git.init().setDirectory(this.upstream).setInitialBranch("main").call()) {
+            this.first = commit(git, "a.txt", "1");
+            this.tagged = commit(git, "a.txt", "2");
+            git.tag().setName("v1").setAnnotated(true).setMessage("v1").setObjectId(this.tagged).call();
+            this.head = commit(git, "a.txt", "3");
+
+            git.checkout().setCreateBranch(true).setName("other").setStartPoint(this.tagged).call();
+            this.otherHead = commit(git, "b.txt", "other");
+            git.checkout().setName("main").call();
+        }
+    }
+
+    @Test
+    void fullCloneFetchesEveryBranchAndTag() throws Exception {
+        File workdir = this.clone(CloneMode.FULL, "main", 0);
+
+        try (Git git = Git.open(workdir)) {
+            Repository repository = git.getRepository();
+            assertFalse(new File(repository.getDirectory(), "shallow").exists());
+            assertEquals(this.head, repository.resolve(Constants.HEAD));
+            assertEquals(Set.of("refs/heads/main", "refs/remotes/origin/main", "refs/remotes/origin/other", "refs/tags/v1"), refNames(repository));
+            assertEquals(this.otherHead, repository.resolve("refs/remotes/origin/other"));
+            assertEquals(3, countCommits(git));
+        }
+    }
+
+    @Test
+    void singleBranchCloneWithDepthIsShallow() throws Exception {
+        File workdir = this.clone(CloneMode.SINGLE_BRANCH, "main", 1);
+
+        try (Git git = Git.open(workdir)) {
+            Repository repository = git.getRepository();
+            assertEquals(this.head, repository.resolve(Constants.HEAD));
+            assertEquals(Set.of("refs/heads/main", "refs/remotes/origin/main"), refNames(repository));
+
+            File shallow = new File(repository.getDirectory(), "shallow");
+            assertTrue(shallow.isFile());
+            assertEquals(List.of(this.head.name()), Files.readAllLines(shallow.toPath(), StandardCharsets.US_ASCII));
+            assertEquals(1, countCommits(git));
+            assertFalse(repository.getObjectDatabase().has(this.first));
+        }
+    }
+
+    @Test
+    void fullCloneWithDepthCutsEveryRef() throws Exception {
+        File workdir = this.clone(CloneMode.FULL, "main", 1);
+
+        try (Git git = Git.open(workdir)) {
+            Repository repository = git.getRepository();
+            assertEquals(Set.of("refs/heads/main", "refs/remotes/origin/main", "refs/remotes/origin/other", "refs/tags/v1"), refNames(repository));
+
+            // The depth applies to every fetched ref, the tag included
+            File shallow = new File(repository.getDirectory(), "shallow");
+            assertEquals(Set.of(this.head.name(), this.otherHead.name(), this.tagged.name()), Set.copyOf(Files.readAllLines(shallow.toPath(), StandardCharsets.US_ASCII)));
+            assertEquals(1, countCommits(git));
+            assertFalse(repository.getObjectDatabase().has(this.first));
+        }
+    }
+
+    @Test
+    void tagCloneFetchesOnlyTheTag() throws Exception {
+        File workdir = this.clone(CloneMode.TAG, "v1", 0);
+
+        try (Git git = Git.open(workdir)) {
+            Repository repository = git.getRepository();
+            assertEquals(this.tagged, repository.resolve(Constants.HEAD));
+            assertEquals(Set.of("refs/tags/v1"), refNames(repository));
+            assertNull(repository.resolve("refs/remotes/origin/other"));
+            assertFalse(repository.getObjectDatabase().has(this.head));
+        }
+    }
+
+    @Test
+    void tagCloneWithDepthIsShallow() throws Exception {
+        File workdir = this.clone(CloneMode.TAG, "refs/tags/v1", 1);
+
+        try (Git git = Git.open(workdir)) {
+            Repository repository = git.getRepository();
+            assertEquals(this.tagged, repository.resolve(Constants.HEAD));
+            assertEquals(List.of(this.tagged.name()), Files.readAllLines(new File(repository.getDirectory(), "shallow").toPath(), StandardCharsets.US_ASCII));
+            assertEquals(1, countCommits(git));
+        }
+    }
+
+    private File clone(CloneMode mode, String baseRef, int depth) {
+        PatchesConfiguration configuration = new PatchesConfiguration(this.upstream.toURI().toString(), baseRef, "patches", "", depth, mode, false, "");
+        assertTrue(configuration.getBaseRepoUrl().startsWith("file:"));
+
+        File workdir = this.temp.resolve("workdir").toFile();
+        assertEquals(ExitCodes.SUCCESSFUL, new GitService(configuration, new TempStorage()).cloneRepository(workdir));
+        return workdir;
+    }
+
+    private static RevCommit commit(Git git, String path, String content) throws Exception {
+        Files.writeString(git.getRepository().getWorkTree().toPath().resolve(path), content);
+        git.add().addFilepattern(path).call();
+        return git.commit().setMessage(path + " " + content).setSign(false).call();
+    }
+
+    private static Set<String> refNames(Repository repository) throws Exception {
+        return repository.getRefDatabase().getRefs().stream()
+                .map(Ref::getName)
+                .filter(name -> !name.equals(Constants.HEAD))
+                .collect(Collectors.toSet());
+    }
+
+    private static int countCommits(Git git) throws Exception {
+        int count = 0;
+        for (RevCommit ignored : git.log().call()) {
+            count++;
+        }
+        return count;
+    }
+}
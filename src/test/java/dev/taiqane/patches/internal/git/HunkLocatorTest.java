@@ -0,0 +1,126 @@
+package dev.taiqane.patches.internal.git;
+
+import org.eclipse.jgit.patch.FileHeader;
+import org.eclipse.jgit.patch.Patch;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+    Applies single file patches to small pre-images and checks where the hunks landed.
+ */
+class HunkLocatorTest {
+    private static final String LINES = "line 1\nline 2\nline 3\nline 4\nline 5\nline 6\nline 7\n";
+
+    @Test
+    void hunkMovedDownAppliesWithOffset() throws Exception {
+        FileHeader fileHeader = parse("""
+                @@ -4,3 +4,3 @@
+                 line 4
+                -line 5
+                +five
+                 line 6
+                """);
+
+        HunkLocator.Result result = HunkLocator.apply(bytes("extra a\nextra b\n" + LINES), fileHeader, 0);
+
+        assertNull(result.getError());
+        assertEquals("extra a\nextra b\nline 1\nline 2\nline 3\nline 4\nfive\nline 6\nline 7\n", string(result.getContent()));
+        HunkLocator.Placement placement = result.getPlacements().getFirst();
+        assertEquals(6, placement.getLine());
+        assertEquals(2, placement.getOffset());
+        assertEquals(0, placement.getFuzz());
+    }
+
+    @Test
+    void changedContextNeedsFuzz() throws Exception {
+        FileHeader fileHeader = parse("""
+                @@ -3,5 +3,5 @@
+                 line 3
+                 line 4
+                -line 5
+                +five
+                 line 6
+                 line 7
+                """);
+        byte[] preImage = bytes(LINES.replace("line 3", "line three"));
+
+        assertNotNull(HunkLocator.apply(preImage, fileHeader, 0).getError());
+
+        HunkLocator.Result result = HunkLocator.apply(preImage, fileHeader, 1);
+        assertNull(result.getError());
+        assertEquals("line 1\nline 2\nline three\nline 4\nfive\nline 6\nline 7\n", string(result.getContent()));
+        assertEquals(1, result.getPlacements().getFirst().getFuzz());
+        assertEquals(3, result.getPlacements().getFirst().getLine());
+    }
+
+    @Test
+    void hunkWithoutContextInsertsAfterTheNamedLine() throws Exception {
+        FileHeader fileHeader = parse("""
+                @@ -2,0 +3 @@
+                +inserted
+                """);
+
+        HunkLocator.Result result = HunkLocator.apply(bytes(LINES), fileHeader, 0);
+
+        assertNull(result.getError());
+        assertEquals("line 1\nline 2\ninserted\nline 3\nline 4\nline 5\nline 6\nline 7\n", string(result.getContent()));
+        assertEquals(0, result.getPlacements().getFirst().getOffset());
+    }
+
+    @Test
+    void missingFinalNewlineIsKept() throws Exception {
+        FileHeader fileHeader = parse("""
+                @@ -2,2 +2,2 @@
+                 line 2
+                -line 3
+                \\ No newline at end of file
+                +three
+                \\ No newline at end of file
+                """);
+
+        HunkLocator.Result result = HunkLocator.apply(bytes("line 1\nline 2\nline 3"), fileHeader, 0);
+
+        assertNull(result.getError());
+        assertEquals("line 1\nline 2\nthree", string(result.getContent()));
+
+        // The old lines end without a newline, so they do not match a file which has one
+        assertNotNull(HunkLocator.apply(bytes("line 1\nline 2\nline 3\n"), fileHeader, 0).getError());
+    }
+
+    @Test
+    void missingFinalNewlineIsAdded() throws Exception {
+        FileHeader fileHeader = parse("""
+                @@ -2,2 +2,2 @@
+                 line 2
+                -line 3
+                \\ No newline at end of file
+                +three
+                """);
+
+        HunkLocator.Result result = HunkLocator.apply(bytes("line 1\nline 2\nline 3"), fileHeader, 0);
+
+        assertNull(result.getError());
+        assertEquals("line 1\nline 2\nthree\n", string(result.getContent()));
+    }
+
+    private static FileHeader parse(String hunks) throws IOException {
+        String text = "diff --git a/f.txt b/f.txt\n--- a/f.txt\n+++ b/f.txt\n" + hunks;
+        Patch patch = new Patch();
+        patch.parse(new ByteArrayInputStream(bytes(text)));
+        assertTrue(patch.getErrors().isEmpty(), patch.getErrors().toString());
+        return patch.getFiles().getFirst();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,251 @@
+package dev.taiqane.patches.internal.git;
+
+import dev.taiqane.patches.configuration.PatchesConfiguration;
+import dev.taiqane.patches.internal.TempStorage;
+import dev.taiqane.patches.internal.error.ExitCodes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+    Reads the output of git format-patch --stdout and of MboxWriter, and decodes RFC 2047 header
+    values, well-formed and broken ones.
+ */
+class MboxReaderTest {
+    // git format-patch --stdout --cover-letter of git 2.39.5. The first patch removes two "- "
+    // lines, which look like the "-- " of the signature, the last one right in front of it.
+    private static final String FORMAT_PATCH = """
+            From a9f47b9aafad0f6059bc501b0285b362792a0af9 Mon Sep 17 00:00:00 2001
+            From: Ann Author <ann@example.com>
+            Date: Sun, 18 Oct 2026 10:15:00 +0000
+            Subject: [PATCH 0/2] *** SUBJECT HERE ***
+
+            *** BLURB HERE ***
+
+            Ann Author (2):
+              Drop the empty list items
+              Add a line at the end of the notes so that the subject of this commit
+                gets long enough to be folded
+
+             notes.md | 3 +--
+             1 file changed, 1 insertion(+), 2 deletions(-)
+
+            --\s
+            2.39.5
+
+            From 85c2059e22213f0454dd71c432a2518cc780f0c1 Mon Sep 17 00:00:00 2001
+            From: Ann Author <ann@example.com>
+            Date: Sun, 18 Oct 2026 10:05:00 +0200
+            Subject: [PATCH 1/2] Drop the empty list items
+
+            They render as stray bullets.
+            ---
+             notes.md | 2 --
+             1 file changed, 2 deletions(-)
+
+            diff --git a/notes.md b/notes.md
+            index f3c0089..eddd4b9 100644
+            --- a/notes.md
+            +++ b/notes.md
+            @@ -1,4 +1,2 @@
+             Notes
+            --\s
+             end
+            --\s
+            --\s
+            2.39.5
+
+
+            From a9f47b9aafad0f6059bc501b0285b362792a0af9 Mon Sep 17 00:00:00 2001
+            From: Ann Author <ann@example.com>
+            Date: Sun, 18 Oct 2026 10:10:00 +0200
+            Subject: [PATCH 2/2] Add a line at the end of the notes so that the subject of
+             this commit gets long enough to be folded
+
+            ---
+             notes.md | 1 +
+             1 file changed, 1 insertion(+)
+
+            diff --git a/notes.md b/notes.md
+            index eddd4b9..69c69a1 100644
+            --- a/notes.md
+            +++ b/notes.md
+            @@ -1,2 +1,3 @@
+             Notes
+             end
+            +more
+            --\s
+            2.39.5
+
+            """;
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void adjacentEncodedWordsAreJoined() {
+        assertEquals("Für Straße", MboxReader.decodeHeader("=?UTF-8?q?F=C3=BCr_Stra=C3?=\n =?UTF-8?q?=9Fe?="));
+        assertEquals("[PATCH] Grüße", MboxReader.decodeHeader("[PATCH] =?UTF-8?b?R3LDvMOfZQ==?="));
+    }
+
+    @Test
+    void invalidEscapesAreKeptAsText() {
+        assertEquals("100=ZZ done", MboxReader.decodeHeader("=?UTF-8?q?100=ZZ_done?="));
+        assertEquals("a=Gb", MboxReader.decodeHeader("=?UTF-8?Q?a=Gb?="));
+        assertEquals("=?UTF-8?b?R3L=x?=", MboxReader.decodeHeader("=?UTF-8?b?R3L=x?="));
+    }
+
+    @Test
+    void readsFormatPatchSeries() throws IOException {
+        List<PatchesDiff> diffs = readAll(FORMAT_PATCH.getBytes(StandardCharsets.UTF_8));
+
+        // The cover letter has no diff and is skipped
+        assertEquals(2, diffs.size());
+
+        PatchesDiff first = diffs.get(0);
+        assertEquals("Drop the empty list items", first.getSubject());
+        assertEquals("They render as stray bullets.", first.getBody());
+        assertEquals("Ann Author", first.getAuthorName());
+        assertEquals("ann@example.com", first.getAuthorEmail());
+        assertEquals(ZonedDateTime.parse("2026-10-18T10:05:00+02:00").toInstant(), first.getAuthorDate().toInstant());
+        assertEquals("""
+                diff --git a/notes.md b/notes.md
+                index f3c0089..eddd4b9 100644
+                --- a/notes.md
+                +++ b/notes.md
+                @@ -1,4 +1,2 @@
+                 Notes
+                --\s
+                 end
+                --\s
+                """, first.getDiffText());
+
+        PatchesDiff second = diffs.get(1);
+        assertEquals("Add a line at the end of the notes so that the subject of this commit gets long enough to be folded", second.getSubject());
+        assertEquals("", second.getBody());
+        assertEquals("""
+                diff --git a/notes.md b/notes.md
+                index eddd4b9..69c69a1 100644
+                --- a/notes.md
+                +++ b/notes.md
+                @@ -1,2 +1,3 @@
+                 Notes
+                 end
+                +more
+                """, second.getDiffText());
+    }
+
+    @Test
+    void readsWhatMboxWriterWrote() throws IOException {
+        PatchesDiff umlauts = new PatchesDiff();
+        umlauts.setSubject("Übersetze die Überschriften der Einstellungen und der Hilfe ins Deutsche");
+        umlauts.setBody("Die Hilfe war noch englisch.\n\nSiehe auch die Einstellungen.");
+        umlauts.setAuthorName("Jürgen Groß");
+        umlauts.setAuthorEmail("jg@example.com");
+        umlauts.setAuthorDate(ZonedDateTime.parse("2026-10-18T12:00:00+02:00"));
+        umlauts.setDiffText("""
+                diff --git a/help.md b/help.md
+                --- a/help.md
+                +++ b/help.md
+                @@ -1,2 +1,1 @@
+                 Help
+                --\s
+                """);
+
+        PatchesDiff plain = new PatchesDiff();
+        plain.setSubject("Add more");
+        plain.setBody("");
+        plain.setAuthorName("Ann Author");
+        plain.setAuthorEmail("ann@example.com");
+        plain.setAuthorDate(ZonedDateTime.parse("2026-10-18T13:00:00Z"));
+        plain.setDiffText("diff --git a/f b/f\n--- a/f\n+++ b/f\n@@ -1 +1,2 @@\n a\n+more");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MboxWriter writer = new MboxWriter(out)) {
+            writer.write(umlauts, 1, 2);
+            writer.write(plain, 2, 2);
+        }
+        String mbox = out.toString(StandardCharsets.UTF_8);
+        assertTrue(mbox.contains("Subject: [PATCH 1/2] =?UTF-8?q?"), mbox);
+        assertTrue(mbox.contains("?=\n =?UTF-8?q?"), "long subjects are folded");
+
+        List<PatchesDiff> diffs = readAll(out.toByteArray());
+        assertEquals(2, diffs.size());
+        for (int i = 0; i < diffs.size(); i++) {
+            PatchesDiff written = i == 0 ? umlauts : plain;
+            PatchesDiff read = diffs.get(i);
+            assertEquals(written.getSubject(), read.getSubject());
+            assertEquals(written.getBody(), read.getBody());
+            assertEquals(written.getAuthorName(), read.getAuthorName());
+            assertEquals(written.getAuthorEmail(), read.getAuthorEmail());
+            assertEquals(written.getAuthorDate().toInstant(), read.getAuthorDate().toInstant());
+        }
+        assertEquals(umlauts.getDiffText(), diffs.get(0).getDiffText());
+        // The writer ends the diff with a newline
+        assertEquals(plain.getDiffText() + "\n", diffs.get(1).getDiffText());
+    }
+
+    @Test
+    void importedSeriesExportsToTheSamePatches() throws IOException {
+        Path mbox = this.temp.resolve("series.mbox");
+        Files.writeString(mbox, FORMAT_PATCH);
+        GitService gitService = new GitService(new PatchesConfiguration(), new TempStorage());
+
+        Path imported = this.temp.resolve("imported");
+        gitService.setPatchesSource(imported.toFile());
+        assertEquals(ExitCodes.SUCCESSFUL, gitService.importMbox(mbox.toFile()));
+
+        Path exported = this.temp.resolve("exported.mbox");
+        assertEquals(ExitCodes.SUCCESSFUL, gitService.exportMbox(exported.toFile()));
+
+        Path reimported = this.temp.resolve("reimported");
+        gitService.setPatchesSource(reimported.toFile());
+        assertEquals(ExitCodes.SUCCESSFUL, gitService.importMbox(exported.toFile()));
+
+        List<String> names = fileNames(imported);
+        assertEquals(2, names.size());
+        assertEquals(names, fileNames(reimported));
+        for (String name : names) {
+            assertEquals(Files.readString(imported.resolve(name)), Files.readString(reimported.resolve(name)), name);
+        }
+
+        // The patches still carry the diff of the mbox
+        List<PatchesDiff> diffs = readAll(FORMAT_PATCH.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < names.size(); i++) {
+            PatchesDiff diff = new DiffService().readPatches(new File(imported.toFile(), names.get(i)));
+            assertNotNull(diff);
+            assertEquals(diffs.get(i).getSubject(), diff.getSubject());
+            assertEquals(diffs.get(i).getDiffText(), diff.getDiffText());
+        }
+    }
+
+    private static List<PatchesDiff> readAll(byte[] mbox) throws IOException {
+        List<PatchesDiff> diffs = new ArrayList<>();
+        try (MboxReader reader = new MboxReader(new ByteArrayInputStream(mbox))) {
+            PatchesDiff diff;
+            while ((diff = reader.next()) != null) {
+                diffs.add(diff);
+            }
+        }
+        return diffs;
+    }
+
+    private static List<String> fileNames(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+}
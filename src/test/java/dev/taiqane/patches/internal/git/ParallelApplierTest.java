@@ -0,0 +1,127 @@
+package dev.taiqane.patches.internal.git;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+    Applies a generated series once with the sequential InMemoryApplier, like apply -j1 does, and
+    once with the ParallelApplier, and expects the same tree after every patch.
+ */
+class ParallelApplierTest {
+    private static final int FILES = 4;
+    private static final int PATCHES = 12;
+
+    @TempDir
+    Path temp;
+
+    @Test
+    void parallelApplyEndsWithTheTreesOfTheSequentialApply() throws Exception {
+        File patchesDirectory = this.temp.resolve("patches").toFile();
+        assertTrue(patchesDirectory.mkdirs());
+        DiffService diffService = new DiffService();
+
+        try (Git git = Git.init().setDirectory(this.temp.resolve("repo").toFile()).setInitialBranch("main").call()) {
+            Path workTree = git.getRepository().getWorkTree().toPath();
+            for (int file = 0; file < FILES; file++) {
+                StringBuilder content = new StringBuilder();
+                for (int line = 1; line <= 30; line++) {
+                    content.append("file ").append(file).append(" line ").append(line).append('\n');
+                }
+                Files.writeString(workTree.resolve("f" + file + ".txt"), content);
+            }
+            Files.writeString(workTree.resolve("gone.txt"), "removed by a patch\n");
+            git.add().addFilepattern(".").call();
+            RevCommit base = git.commit().setMessage("base").setSign(false).call();
+
+            // Most patches touch one file, every fifth one joins the groups of two files
+            RevCommit previous = base;
+            for (int i = 1; i <= PATCHES; i++) {
+                changeLine(workTree.resolve("f" + (i % FILES) + ".txt"), i * 2, "patch " + i);
+                if (i % 5 == 0) {
+                    changeLine(workTree.resolve("f" + ((i + 1) % FILES) + ".txt"), i * 2 + 1, "patch " + i);
+                }
+                if (i == 6) {
+                    Files.writeString(workTree.resolve("new.txt"), "added by patch 6\n");
+                }
+                if (i == 9) {
+                    Files.delete(workTree.resolve("gone.txt"));
+                }
+                git.add().addFilepattern(".").call();
+                git.add().setUpdate(true).addFilepattern(".").call();
+                RevCommit commit = git.commit().setMessage("patch " + i).setSign(false).call();
+
+                File patchFile = new File(patchesDirectory, String.format("%04d-patch-%d.patch", i, i));
+                diffService.writePatchWithHeader(patchFile, formatDiff(git, previous, commit), "patch " + i, "", "Pat Ch", "p@example.com", ZonedDateTime.now());
+                previous = commit;
+            }
+
+            SeriesIndex index = SeriesIndex.update(diffService, patchesDirectory);
+            List<SeriesIndex.Entry> entries = index.getEntries();
+            assertEquals(PATCHES, entries.size());
+
+            ApplyOptions sequentialOptions = new ApplyOptions();
+            sequentialOptions.setJobs(1);
+            List<ObjectId> sequentialTrees = new ArrayList<>();
+            try (InMemoryApplier applier = new InMemoryApplier(git.getRepository(), sequentialOptions)) {
+                ObjectId commitId = base;
+                for (SeriesIndex.Entry entry : entries) {
+                    commitId = applier.applyPatch(commitId, index.readPatch(diffService, entry));
+                    sequentialTrees.add(applier.getWalk().parseCommit(commitId).getTree().copy());
+                }
+            }
+
+            ApplyOptions parallelOptions = new ApplyOptions();
+            parallelOptions.setJobs(4);
+            List<ObjectId> parallelTrees = new ArrayList<>();
+            try (ParallelApplier parallelApplier = new ParallelApplier(diffService, git.getRepository(), index, entries, parallelOptions);
+                 InMemoryApplier applier = new InMemoryApplier(git.getRepository(), parallelOptions)) {
+                parallelApplier.start(base.getTree());
+                ObjectId commitId = base;
+                for (int i = 0; i < entries.size(); i++) {
+                    ParallelApplier.Outcome outcome = parallelApplier.await(i);
+                    assertNull(outcome.getError(), entries.get(i).getFileName());
+                    commitId = applier.commitChanges(commitId, outcome.getDiff(), outcome.getChanges());
+                    parallelTrees.add(applier.getWalk().parseCommit(commitId).getTree().copy());
+                }
+            }
+
+            assertEquals(sequentialTrees, parallelTrees);
+            assertEquals(previous.getTree(), sequentialTrees.getLast());
+        }
+    }
+
+    private static void changeLine(Path file, int line, String text) throws Exception {
+        List<String> lines = new ArrayList<>(Files.readAllLines(file, StandardCharsets.UTF_8));
+        lines.set(line - 1, text);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    private static String formatDiff(Git git, RevCommit parent, RevCommit commit) throws Exception {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+             DiffFormatter formatter = new DiffFormatter(out);
+             RevWalk walk = new RevWalk(git.getRepository())) {
+            formatter.setRepository(git.getRepository());
+            formatter.setDiffComparator(RawTextComparator.DEFAULT);
+            formatter.format(walk.parseCommit(parent).getTree(), walk.parseCommit(commit).getTree());
+            formatter.flush();
+            return out.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
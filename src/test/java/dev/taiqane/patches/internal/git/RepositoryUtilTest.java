@@ -0,0 +1,61 @@
+package dev.taiqane.patches.internal.git;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryUtilTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void restoreToCommitAppliesTheEolOfTheAttributes() throws Exception {
+        try (Git git = Git.init().setDirectory(this.temp.toFile()).setInitialBranch("main").call()) {
+            Files.writeString(this.temp.resolve(".gitattributes"), "*.bat eol=crlf\n");
+            Files.writeString(this.temp.resolve("run.bat"), "echo 1\n");
+            Files.writeString(this.temp.resolve("plain.txt"), "one\n");
+            git.add().addFilepattern(".").call();
+            RevCommit base = git.commit().setMessage("base").setSign(false).call();
+
+            Files.writeString(this.temp.resolve("run.bat"), "echo 2\n");
+            Files.writeString(this.temp.resolve("plain.txt"), "two\n");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("change").setSign(false).call();
+
+            RepositoryUtil.restoreToCommit(git, base, "test: restore", false);
+
+            assertEquals("echo 1\r\n", Files.readString(this.temp.resolve("run.bat")));
+            assertEquals("one\n", Files.readString(this.temp.resolve("plain.txt")));
+            assertTrue(git.status().call().isClean());
+        }
+    }
+
+    @Test
+    void restoreToCommitAppliesAutoCrlf() throws Exception {
+        try (Git git = Git.init().setDirectory(this.temp.toFile()).setInitialBranch("main").call()) {
+            Files.writeString(this.temp.resolve("a.txt"), "one\n");
+            git.add().addFilepattern(".").call();
+            RevCommit base = git.commit().setMessage("base").setSign(false).call();
+
+            Files.writeString(this.temp.resolve("a.txt"), "two\n");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("change").setSign(false).call();
+
+            StoredConfig config = git.getRepository().getConfig();
+            config.setString("core", null, "autocrlf", "true");
+            config.save();
+
+            RepositoryUtil.restoreToCommit(git, base, "test: restore", false);
+
+            assertEquals("one\r\n", Files.readString(this.temp.resolve("a.txt")));
+            assertTrue(git.status().call().isClean());
+        }
+    }
+}